@@ -0,0 +1,336 @@
+package jspace;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * JMH microbenchmarks for the parts of Game which run every tick, so we can tell if a change made them
+ * slower before it ships. Each benchmark is run for every combination of entity count and 'mix' (what
+ * kinds of entities are in the world, see populate). Every benchmark runs in fresh JVMs (see @Fork), so
+ * what the JIT learned from one doesn't make another faster or slower, and JMH times whole batches of
+ * calls, so even the 100 entity ones are well above what System.nanoTime can measure.
+ *
+ * Build it with bench/pom.xml, and run it from the root of the project, so the game can find its images:
+ *
+ *   java -jar bench/target/benchmarks.jar -rf json -rff bench_output.json
+ *
+ * Add a regex to only run some of them (eg. 'Benchmarks.draw'), -p entityCount=1000 or -p mix=ships to
+ * only try some of the parameters, and -h for JMH's other options.
+ *
+ * The update stages change the world (eg. collision detection destroys things), so to make every call
+ * do the same work, each one puts the world back how it was first. That's included in the time, because
+ * timing each call on its own would bring back the problem of calls too short to time, so copyState
+ * times just putting the world back: take that away from the others to get the stage on its own.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "-Djava.awt.headless=true")
+public class Benchmarks {
+    // fills a game world with entityCount entities, in one of these mixes:
+    //   ships: all enemies
+    //   projectiles: half player projectiles, half enemy projectiles
+    //   mixed: 10% enemies, and the rest split between player and enemy projectiles
+    // they're spread out a bit past the edges of the screen, so some of them are out of bounds
+    static void populate(Game game, int entityCount, String mix, Random random) {
+        int[] enemyTypes = game.archetypes.enemyTypes;
+        int playerProjectile = game.archetypes.fires[game.archetypes.playerType];
+        int enemyProjectile = game.archetypes.fires[enemyTypes[0]];
+        double enemyFraction = mix.equals("ships") ? 1 : mix.equals("mixed") ? 0.1 : 0;
+        for (int i = 0; i < entityCount; i++) {
+            double x = -300 + random.nextDouble() * (game.screenWidth + 600);
+            double y = -300 + random.nextDouble() * (game.screenHeight + 600);
+            int type;
+            if (i < entityCount * enemyFraction) {
+                type = enemyTypes[random.nextInt(enemyTypes.length)];
+            } else {
+                type = random.nextBoolean() ? playerProjectile : enemyProjectile;
+            }
+            game.addObject(type, x, y);
+        }
+    }
+
+    // a game full of entities, and a saved copy of it to put it back from before every call
+    @State(Scope.Thread)
+    public static class World {
+        @Param({"100", "1000", "10000", "100000"})
+        public int entityCount;
+        @Param({"ships", "projectiles", "mixed"})
+        public String mix;
+
+        Game game;
+        private Game savedGame;
+
+        @Setup
+        public void setUp() {
+            this.savedGame = new Game();
+            // enemies have all just fired, so updating them doesn't fire thousands of new projectiles
+            this.savedGame.time = 0.5;
+            populate(this.savedGame, this.entityCount, this.mix, new Random(1));
+            this.game = new Game();
+            this.game.copyStateFrom(this.savedGame);
+            this.configure(this.game);
+        }
+
+        // turn on whichever way of doing things is being benchmarked (or anything else a benchmark needs)
+        void configure(Game game) {
+        }
+
+        void reset() {
+            this.game.copyStateFrom(this.savedGame);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ParallelCollisionWorld extends World {
+        void configure(Game game) {
+            game.useParallelCollision = true;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class PixelPerfectWorld extends World {
+        void configure(Game game) {
+            game.hitboxes.trimToAlpha();
+            game.usePixelPerfectCollision = true;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class NotSweptWorld extends World {
+        void configure(Game game) {
+            game.useSweptCollision = false;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ParallelUpdateWorld extends World {
+        void configure(Game game) {
+            game.useParallelUpdate = true;
+        }
+    }
+
+    // the brute force collision check is O(n²), so it only goes up to 10000 entities
+    @State(Scope.Thread)
+    public static class BruteForceWorld {
+        @Param({"100", "1000", "10000"})
+        public int entityCount;
+        @Param({"ships", "projectiles", "mixed"})
+        public String mix;
+
+        final World world = new World() {
+            void configure(Game game) {
+                game.useBroadPhase = false;
+            }
+        };
+
+        @Setup
+        public void setUp() {
+            this.world.entityCount = this.entityCount;
+            this.world.mix = this.mix;
+            this.world.setUp();
+        }
+    }
+
+    // a game full of entities, and a buffer the size of its state, for RewindBuffer's snapshots
+    @State(Scope.Thread)
+    public static class SavedWorld extends World {
+        ByteBuffer buffer;
+
+        void configure(Game game) {
+            this.buffer = ByteBuffer.allocateDirect(game.getStateSize()).order(ByteOrder.LITTLE_ENDIAN);
+            game.writeState(this.buffer);
+        }
+    }
+
+    // a game full of entities to draw into an image instead of onto the screen, either clearing the whole
+    // screen first or just the dirty regions (see DirtyRegions)
+    @State(Scope.Thread)
+    public static class Screen {
+        @Param({"100", "1000", "10000", "100000"})
+        public int entityCount;
+        @Param({"ships", "projectiles", "mixed"})
+        public String mix;
+
+        Game game;
+        private Graphics graphics;
+
+        @Setup
+        public void setUp() {
+            this.game = new Game();
+            this.configure(this.game);
+            populate(this.game, this.entityCount, this.mix, new Random(1));
+            this.game.publishRenderSnapshot(1.0 / 60);
+            BufferedImage image = new BufferedImage(this.game.screenWidth, this.game.screenHeight, BufferedImage.TYPE_INT_RGB);
+            this.graphics = image.getGraphics();
+            this.game.graphics = this.graphics;
+        }
+
+        void configure(Game game) {
+            game.useDirtyRegions = false;
+        }
+
+        @TearDown
+        public void tearDown() {
+            this.graphics.dispose();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DirtyRegionsScreen extends Screen {
+        void configure(Game game) {
+            game.useDirtyRegions = true;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class SoftwareScreen extends Screen {
+        void configure(Game game) {
+            game.useDirtyRegions = false;
+            game.softwareRenderer = new SoftwareRenderer();
+        }
+    }
+
+    // entityCount positions, for moving toward a point the way homing enemies do
+    @State(Scope.Thread)
+    public static class Vectors {
+        @Param({"100", "1000", "10000", "100000"})
+        public int entityCount;
+
+        Vector2d[] positions;
+        final Vector2d target = new Vector2d(400, 300);
+        final Vector2d scratch = new Vector2d(0, 0);
+
+        @Setup
+        public void setUp() {
+            Random random = new Random(1);
+            this.positions = new Vector2d[this.entityCount];
+            for (int i = 0; i < this.entityCount; i++) {
+                this.positions[i] = new Vector2d(random.nextDouble() * 800, random.nextDouble() * 600);
+            }
+        }
+    }
+
+    // just putting the world back, which every update stage below does first
+    @Benchmark
+    public void copyState(World world) {
+        world.reset();
+    }
+
+    @Benchmark
+    public void updateCollisionDetection(World world) {
+        world.reset();
+        world.game.updateCollisionDetection();
+    }
+
+    @Benchmark
+    public void updateCollisionDetectionParallel(ParallelCollisionWorld world) {
+        world.reset();
+        world.game.updateCollisionDetection();
+    }
+
+    @Benchmark
+    public void updateCollisionDetectionPixelPerfect(PixelPerfectWorld world) {
+        world.reset();
+        world.game.updateCollisionDetection();
+    }
+
+    @Benchmark
+    public void updateCollisionDetectionNotSwept(NotSweptWorld world) {
+        world.reset();
+        world.game.updateCollisionDetection();
+    }
+
+    @Benchmark
+    public void updateCollisionDetectionBruteForce(BruteForceWorld bruteForce) {
+        bruteForce.world.reset();
+        bruteForce.world.game.updateCollisionDetection();
+    }
+
+    @Benchmark
+    public void updateWorldObjects(World world) {
+        world.reset();
+        world.game.updateWorldObjects(1.0 / 60);
+    }
+
+    @Benchmark
+    public void updateWorldObjectsParallel(ParallelUpdateWorld world) {
+        world.reset();
+        world.game.updateWorldObjects(1.0 / 60);
+    }
+
+    @Benchmark
+    public void removeOutOfBoundsObjects(World world) {
+        world.reset();
+        world.game.removeOutOfBoundsObjects();
+    }
+
+    // taking a snapshot of the world for RewindBuffer, and putting it back. neither changes the world, so
+    // there's no need to put it back first
+    @Benchmark
+    public ByteBuffer writeState(SavedWorld world) {
+        world.buffer.clear();
+        world.game.writeState(world.buffer);
+        return world.buffer;
+    }
+
+    @Benchmark
+    public void readState(SavedWorld world) {
+        world.buffer.flip();
+        world.game.readState(world.buffer);
+    }
+
+    @Benchmark
+    public void draw(Screen screen) {
+        screen.game.draw();
+    }
+
+    @Benchmark
+    public void drawDirtyRegions(DirtyRegionsScreen screen) {
+        screen.game.draw();
+    }
+
+    @Benchmark
+    public void drawSoftware(SoftwareScreen screen) {
+        screen.game.draw();
+    }
+
+    // making new vectors with add/subtract/normalize/multiplyScalar...
+    @Benchmark
+    public Vector2d[] vector2dAllocating(Vectors vectors) {
+        Vector2d[] positions = vectors.positions;
+        for (int i = 0; i < positions.length; i++) {
+            Vector2d step = vectors.target.subtract(positions[i]).normalize().multiplyScalar(0.01);
+            positions[i] = positions[i].add(step);
+        }
+        return positions;
+    }
+
+    // ...or changing them in place with addInPlace etc.
+    @Benchmark
+    public Vector2d[] vector2dInPlace(Vectors vectors) {
+        Vector2d[] positions = vectors.positions;
+        for (Vector2d position : positions) {
+            Vector2d step = vectors.scratch.set(vectors.target).subtractInPlace(position).normalizeInPlace().scaleInPlace(0.01);
+            position.addInPlace(step);
+        }
+        return positions;
+    }
+}
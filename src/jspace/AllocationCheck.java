@@ -0,0 +1,103 @@
+package jspace;
+
+import java.io.IOException;
+
+/*
+ * Checks Game.update doesn't make any garbage once the game has got going. Garbage means the garbage
+ * collector has to run every so often, and that can make the game stutter, so the tick is written to reuse
+ * everything instead (see eg. the scratch vectors in Game, and EntityStore).
+ *
+ * For each of a few different settings, it plays a game with the same bot as Headless for --warmup-ticks
+ * (so the pools have grown as big as they're going to, and the JIT has compiled everything), then counts
+ * how many bytes this thread allocates over the next --ticks, using ThreadMXBean.getThreadAllocatedBytes.
+ * The parallel update is left off, because the other threads' allocations wouldn't be counted.
+ *
+ * Usage: java jspace.AllocationCheck [--warmup-ticks N] [--ticks N] [--max-bytes-per-tick N] [--seed N]
+ *
+ * It prints how much each setting allocated, and exits with status 1 if any of them allocated more than
+ * --max-bytes-per-tick on average (1 by default, to leave room for the odd one-off, like a pool growing).
+ */
+public class AllocationCheck {
+    // how long the bot holds down each direction for (in ticks), the same as Headless
+    static final int SWEEP_TICKS = 120;
+
+    public static void main(String[] args) throws IOException {
+        // make sure nothing tries to open a window
+        System.setProperty("java.awt.headless", "true");
+
+        int warmupTicks = 20000;
+        int ticks = 20000;
+        double maxBytesPerTick = 1;
+        long seed = 1;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--warmup-ticks")) {
+                warmupTicks = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--ticks")) {
+                ticks = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--max-bytes-per-tick")) {
+                maxBytesPerTick = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else {
+                System.err.println("unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+        if (Headless.getAllocatedBytes() < 0) {
+            System.err.println("this JVM can't count how much a thread allocates");
+            System.exit(2);
+        }
+
+        GameAssets assets = new GameAssets(Archetypes.load(Archetypes.DEFAULT_PATH));
+        int failures = 0;
+        for (int setting = 0; setting < 4; setting++) {
+            Game game = new Game(assets);
+            game.random.setSeed(seed);
+            String name;
+            if (setting == 0) {
+                name = "default";
+            } else if (setting == 1) {
+                name = "not swept";
+                game.useSweptCollision = false;
+            } else if (setting == 2) {
+                name = "pixel perfect";
+                game.usePixelPerfectCollision = true;
+            } else {
+                name = "rewinding";
+                game.rewindBuffer = new RewindBuffer(5 * 60, 64, null);
+            }
+
+            int tick = 0;
+            for (; tick < warmupTicks; tick++) {
+                runTick(game, tick);
+            }
+            long startAllocatedBytes = Headless.getAllocatedBytes();
+            for (; tick < warmupTicks + ticks; tick++) {
+                runTick(game, tick);
+            }
+            long allocatedBytes = Headless.getAllocatedBytes() - startAllocatedBytes;
+            double bytesPerTick = allocatedBytes / (double) ticks;
+            boolean passed = bytesPerTick <= maxBytesPerTick;
+            System.out.println(String.format(
+                "%-9s %-15s %10d bytes over %d ticks (%.2f bytes/tick)",
+                passed ? "ok:" : "TOO MUCH:", name, allocatedBytes, ticks, bytesPerTick
+            ));
+            if (!passed) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " settings allocated more than " + maxBytesPerTick + " bytes/tick");
+            System.exit(1);
+        }
+        System.out.println("all settings allocated at most " + maxBytesPerTick + " bytes/tick");
+    }
+
+    private static void runTick(Game game, int tick) {
+        if (tick % SWEEP_TICKS == 0) {
+            game.input = Input.FIRE | ((tick / SWEEP_TICKS) % 2 == 0 ? Input.LEFT : Input.RIGHT);
+        }
+        game.update(1.0 / 60);
+    }
+}
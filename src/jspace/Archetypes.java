@@ -0,0 +1,249 @@
+package jspace;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/*
+ * Everything about each type of game object which doesn't change while the game is running: how fast
+ * it goes, how often it fires, what it looks like, and so on. Each type is an 'archetype', and is
+ * known by its id, which is just its position in the file it was loaded from. The game keeps the id of
+ * each object (eg. EntityStore.type), and looks things up in the arrays here, eg. speed[type]. That
+ * way adding a new type of enemy is just a matter of adding it to the file, without touching the code.
+ *
+ * The file (archetypes.cfg by default) has a section for each type, starting with its name in square
+ * brackets, followed by its settings, one per line:
+ *   [ship2]
+ *   kind = enemy
+ *   sprite = images/ship2.png
+ *   speed = 50
+ * Lines starting with # are ignored. The settings are:
+ *   kind       player, enemy or projectile. there has to be exactly one player
+ *   sprite     the image to draw it with
+ *   speed      how fast it moves (in pixels per second)
+ *   cooldown   how long it waits between firing (in seconds)
+ *   homing     true to also move sideways toward the player (enemies only)
+ *   hitbox     left, top, right, bottom of its hitbox, compared to its center (see Hitboxes). if
+ *              this is left out, the hitbox is the whole image
+ *   fires      the name of the projectile type it fires. things without this never fire
+ *   shots      how many projectiles it fires at once (1 if left out)
+ *   spread     how far apart side by side the shots are (in pixels)
+ *   direction  1 to move down the screen, or -1 to move up (projectiles only)
+ * Every enemy type is equally likely to be spawned.
+ */
+public class Archetypes {
+    // where the game loads the archetypes from, unless it's told otherwise
+    public static final String DEFAULT_PATH = "archetypes.cfg";
+    // ids are kept in bytes (eg. EntityStore.type), so there can't be more types than fit in one
+    public static final int MAX_TYPES = 128;
+
+    public static final int KIND_PLAYER = 0;
+    public static final int KIND_ENEMY = 1;
+    public static final int KIND_PROJECTILE = 2;
+    private static final String[] KIND_NAMES = {"player", "enemy", "projectile"};
+
+    // bits of flags[]
+    public static final int FLAG_HOMING = 1;
+
+    // how many types there are. ids go from 0 to count - 1
+    public final int count;
+    public final String[] name;
+    public final int[] kind;
+    public final int[] flags;
+    public final String[] sprite;
+    public final double[] speed;
+    public final double[] cooldown;
+    public final double[] direction;
+    // whether the hitbox was given in the file, and if so, where its edges are
+    public final boolean[] hasHitbox;
+    public final double[] hitboxLeft;
+    public final double[] hitboxTop;
+    public final double[] hitboxRight;
+    public final double[] hitboxBottom;
+    // the id of the projectile type each type fires (or -1), how many at once, and how far apart
+    public final int[] fires;
+    public final int[] shots;
+    public final double[] spread;
+
+    // the ids of the one player type and all the enemy types
+    public final int playerType;
+    public final int[] enemyTypes;
+
+    private final HashMap<String, Integer> idOfName = new HashMap<String, Integer>();
+
+    // read the archetypes from a file. anything wrong with the file throws an exception saying where
+    public static Archetypes load(String path) {
+        ArrayList<String> names = new ArrayList<String>();
+        ArrayList<HashMap<String, String>> settings = new ArrayList<HashMap<String, String>>();
+        ArrayList<Integer> lineNumbers = new ArrayList<Integer>();
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(path));
+            try {
+                String line;
+                int lineNumber = 0;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    line = line.trim();
+                    if (line.isEmpty() || line.startsWith("#")) {
+                        continue;
+                    }
+                    if (line.startsWith("[") && line.endsWith("]")) {
+                        String name = line.substring(1, line.length() - 1).trim();
+                        if (names.contains(name)) {
+                            throw new RuntimeException(path + ":" + lineNumber + ": there's already a type called " + name);
+                        }
+                        names.add(name);
+                        settings.add(new HashMap<String, String>());
+                        lineNumbers.add(lineNumber);
+                        continue;
+                    }
+                    int equals = line.indexOf('=');
+                    if (equals == -1 || settings.isEmpty()) {
+                        throw new RuntimeException(path + ":" + lineNumber + ": expected [name] or setting = value, not " + line);
+                    }
+                    settings.get(settings.size() - 1).put(line.substring(0, equals).trim(), line.substring(equals + 1).trim());
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("couldn't read " + path, e);
+        }
+        return new Archetypes(path, names, settings, lineNumbers);
+    }
+
+    private Archetypes(String path, ArrayList<String> names, ArrayList<HashMap<String, String>> settings, ArrayList<Integer> lineNumbers) {
+        int count = names.size();
+        if (count > MAX_TYPES) {
+            throw new RuntimeException(path + ": there can't be more than " + MAX_TYPES + " types");
+        }
+        this.count = count;
+        this.name = names.toArray(new String[count]);
+        this.kind = new int[count];
+        this.flags = new int[count];
+        this.sprite = new String[count];
+        this.speed = new double[count];
+        this.cooldown = new double[count];
+        this.direction = new double[count];
+        this.hasHitbox = new boolean[count];
+        this.hitboxLeft = new double[count];
+        this.hitboxTop = new double[count];
+        this.hitboxRight = new double[count];
+        this.hitboxBottom = new double[count];
+        this.fires = new int[count];
+        this.shots = new int[count];
+        this.spread = new double[count];
+        for (int type = 0; type < count; type++) {
+            this.idOfName.put(this.name[type], type);
+        }
+
+        int playerType = -1;
+        int enemyCount = 0;
+        for (int type = 0; type < count; type++) {
+            // so errors can say which type they're about
+            String where = path + ":" + lineNumbers.get(type) + ": [" + this.name[type] + "] ";
+            HashMap<String, String> s = settings.get(type);
+
+            String kind = s.remove("kind");
+            this.kind[type] = Arrays.asList(KIND_NAMES).indexOf(kind);
+            if (this.kind[type] == -1) {
+                throw new RuntimeException(where + "kind should be player, enemy or projectile, not " + kind);
+            }
+            if (this.kind[type] == KIND_PLAYER) {
+                if (playerType != -1) {
+                    throw new RuntimeException(where + "there can only be one player type");
+                }
+                playerType = type;
+            } else if (this.kind[type] == KIND_ENEMY) {
+                enemyCount++;
+            }
+
+            this.sprite[type] = s.remove("sprite");
+            if (this.sprite[type] == null) {
+                throw new RuntimeException(where + "has no sprite");
+            }
+            this.speed[type] = parseDouble(where, "speed", s.remove("speed"), 0);
+            this.cooldown[type] = parseDouble(where, "cooldown", s.remove("cooldown"), 0);
+            this.direction[type] = parseDouble(where, "direction", s.remove("direction"), 1);
+            if ("true".equals(s.remove("homing"))) {
+                this.flags[type] |= FLAG_HOMING;
+            }
+
+            String hitbox = s.remove("hitbox");
+            if (hitbox != null) {
+                String[] edges = hitbox.split(",");
+                if (edges.length != 4) {
+                    throw new RuntimeException(where + "hitbox should be left, top, right, bottom, not " + hitbox);
+                }
+                this.hasHitbox[type] = true;
+                this.hitboxLeft[type] = parseDouble(where, "hitbox", edges[0].trim(), 0);
+                this.hitboxTop[type] = parseDouble(where, "hitbox", edges[1].trim(), 0);
+                this.hitboxRight[type] = parseDouble(where, "hitbox", edges[2].trim(), 0);
+                this.hitboxBottom[type] = parseDouble(where, "hitbox", edges[3].trim(), 0);
+            }
+
+            String fires = s.remove("fires");
+            this.fires[type] = -1;
+            if (fires != null) {
+                Integer projectileType = this.idOfName.get(fires);
+                if (projectileType == null) {
+                    throw new RuntimeException(where + "fires " + fires + ", but there's no type called that");
+                }
+                this.fires[type] = projectileType;
+            }
+            this.shots[type] = (int) parseDouble(where, "shots", s.remove("shots"), 1);
+            this.spread[type] = parseDouble(where, "spread", s.remove("spread"), 0);
+
+            if (!s.isEmpty()) {
+                throw new RuntimeException(where + "unknown settings: " + s.keySet());
+            }
+        }
+        // (checked once every type's kind is known, because a type can fire one further down the file)
+        for (int type = 0; type < count; type++) {
+            if (this.fires[type] != -1 && this.kind[this.fires[type]] != KIND_PROJECTILE) {
+                throw new RuntimeException(path + ": [" + this.name[type] + "] fires " + this.name[this.fires[type]] + ", which isn't a projectile type");
+            }
+        }
+        if (playerType == -1) {
+            throw new RuntimeException(path + ": there's no player type");
+        }
+        if (enemyCount == 0) {
+            throw new RuntimeException(path + ": there are no enemy types");
+        }
+        this.playerType = playerType;
+        this.enemyTypes = new int[enemyCount];
+        int enemy = 0;
+        for (int type = 0; type < count; type++) {
+            if (this.kind[type] == KIND_ENEMY) {
+                this.enemyTypes[enemy++] = type;
+            }
+        }
+    }
+
+    // the id of the type with the given name
+    public int getId(String name) {
+        Integer id = this.idOfName.get(name);
+        if (id == null) {
+            throw new RuntimeException("unknown type: " + name);
+        }
+        return id;
+    }
+
+    public boolean hasFlag(int type, int flag) {
+        return (this.flags[type] & flag) != 0;
+    }
+
+    private static double parseDouble(String where, String setting, String value, double defaultValue) {
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new RuntimeException(where + setting + " should be a number, not " + value);
+        }
+    }
+}
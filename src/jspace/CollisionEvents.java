@@ -0,0 +1,41 @@
+package jspace;
+
+import java.util.Arrays;
+
+/*
+ * A list of collisions which have been found but not dealt with yet. Collision detection (see
+ * Game.updateCollisionDetection) happens in two steps: first everything which is touching something
+ * it shouldn't gets written down in one of these, without changing the game world at all, so that
+ * can happen on several threads at once. Then the collisions get dealt with one at a time, in order.
+ */
+public class CollisionEvents {
+    public enum Kind {
+        // a is the slot of an enemy which is touching the player
+        enemyHitPlayer,
+        // a is the slot of a player projectile, b is the slot of the enemy it's touching
+        projectileHitEnemy,
+        // a is the slot of an enemy projectile which is touching the player
+        projectileHitPlayer,
+    }
+
+    public Kind[] kind = new Kind[16];
+    public int[] a = new int[16];
+    public int[] b = new int[16];
+    public int count = 0;
+
+    public void clear() {
+        this.count = 0;
+    }
+
+    public void add(Kind kind, int a, int b) {
+        if (this.count == this.kind.length) {
+            this.kind = Arrays.copyOf(this.kind, this.count * 2);
+            this.a = Arrays.copyOf(this.a, this.count * 2);
+            this.b = Arrays.copyOf(this.b, this.count * 2);
+        }
+        this.kind[this.count] = kind;
+        this.a[this.count] = a;
+        this.b[this.count] = b;
+        this.count++;
+    }
+}
@@ -0,0 +1,109 @@
+package jspace;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.util.Arrays;
+
+/*
+ * Remembers which rectangles of the screen got drawn on over the last few frames, so that instead of
+ * filling the whole screen with the background every frame, we only need to fill in the parts where
+ * something was drawn ('dirty rectangles'). Most of space is empty, so on a big window this is a lot
+ * less filling in.
+ *
+ * We have to remember more than one frame back, because the image we're drawing into isn't the one
+ * we drew last frame: with two buffers, it's the one from the frame before that (see Main.runRenderLoop).
+ */
+public class DirtyRegions {
+    // how many frames back the image we're drawing into might have things drawn in it from
+    private final int framesRemembered;
+    // the rectangles drawn in each remembered frame, as x, y, width, height one after the other
+    private int[][] rectangles;
+    private final int[] rectangleCount;
+    // which of the remembered frames is the one being drawn now
+    private int currentFrame = 0;
+    // how many more frames have to clear the whole screen, because we don't know what's in the image
+    private int fullClearsLeft;
+    // the size of the screen last frame. if it changes, everything has to be cleared
+    private int lastWidth = -1;
+    private int lastHeight = -1;
+
+    // how many times the whole screen got cleared, and how many times just the dirty rectangles did
+    public long fullClears = 0;
+    public long partialClears = 0;
+
+    public DirtyRegions(int framesRemembered) {
+        this.framesRemembered = framesRemembered;
+        this.rectangles = new int[framesRemembered][64 * 4];
+        this.rectangleCount = new int[framesRemembered];
+        this.fullClearsLeft = framesRemembered;
+    }
+
+    // forget what's been drawn and clear the whole screen for the next few frames. this needs calling
+    // whenever the image we're drawing into might have been changed by something else, eg. when the
+    // graphics card throws it away
+    public void invalidate() {
+        this.fullClearsLeft = this.framesRemembered;
+    }
+
+    // fill in everywhere anything got drawn in the last few frames with the background color, then start
+    // remembering what gets drawn in this frame
+    public void beginFrame(Graphics g, Color background, int width, int height) {
+        if (width != this.lastWidth || height != this.lastHeight) {
+            this.lastWidth = width;
+            this.lastHeight = height;
+            this.invalidate();
+        }
+
+        g.setColor(background);
+        if (this.fullClearsLeft > 0 || this.getDirtyArea() >= (long) width * height) {
+            // clearing lots of overlapping rectangles is slower than just clearing everything
+            g.fillRect(0, 0, width, height);
+            this.fullClears++;
+            if (this.fullClearsLeft > 0) {
+                this.fullClearsLeft--;
+            }
+        } else {
+            for (int frame = 0; frame < this.framesRemembered; frame++) {
+                int[] frameRectangles = this.rectangles[frame];
+                int count = this.rectangleCount[frame];
+                for (int i = 0; i < count; i++) {
+                    int j = i * 4;
+                    g.fillRect(frameRectangles[j], frameRectangles[j + 1], frameRectangles[j + 2], frameRectangles[j + 3]);
+                }
+            }
+            this.partialClears++;
+        }
+
+        // the oldest frame has now been cleared from every image, so its slot can be reused for this one
+        this.currentFrame = (this.currentFrame + 1) % this.framesRemembered;
+        this.rectangleCount[this.currentFrame] = 0;
+    }
+
+    // remember that something got drawn in the given rectangle this frame
+    public void add(int x, int y, int width, int height) {
+        int[] frameRectangles = this.rectangles[this.currentFrame];
+        int j = this.rectangleCount[this.currentFrame] * 4;
+        if (j + 4 > frameRectangles.length) {
+            frameRectangles = Arrays.copyOf(frameRectangles, frameRectangles.length * 2);
+            this.rectangles[this.currentFrame] = frameRectangles;
+        }
+        frameRectangles[j] = x;
+        frameRectangles[j + 1] = y;
+        frameRectangles[j + 2] = width;
+        frameRectangles[j + 3] = height;
+        this.rectangleCount[this.currentFrame]++;
+    }
+
+    // the total area of all the remembered rectangles (counting overlaps more than once)
+    private long getDirtyArea() {
+        long area = 0;
+        for (int frame = 0; frame < this.framesRemembered; frame++) {
+            int[] frameRectangles = this.rectangles[frame];
+            int count = this.rectangleCount[frame];
+            for (int i = 0; i < count; i++) {
+                area += (long) frameRectangles[i * 4 + 2] * frameRectangles[i * 4 + 3];
+            }
+        }
+        return area;
+    }
+}
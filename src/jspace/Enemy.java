@@ -1,32 +1,31 @@
 package jspace;
 
+/*
+ * An enemy ship. The enemy's data actually lives in an EntityStore, and this is just a view of
+ * one slot of it, which is handy for logging/debugging. How fast it goes and so on depend on its type,
+ * and are in the game's Archetypes.
+ */
 public class Enemy extends GameObject {
-    // time that this thing last fired a projectile. used to figure out when they can fire another.
-    public double lastShot = 0;
+    // the store holding this enemy's data, and which slot of it this enemy is
+    private EntityStore store;
+    private int slot;
 
-    Enemy(Type type) {
-        super(type);
+    Enemy(EntityStore store, int slot) {
+        super(store.type[slot]);
+        this.store = store;
+        this.slot = slot;
     }
 
+    public double getX() {
+        return this.store.x[this.slot];
+    }
 
-    public int getSpeed() {
-        switch (this.type) {
-            case ship1: return 30;
-            case ship2: return 50;
-            case ship3: return 60;
-            case ship4: return 40;
-        }
-        throw new RuntimeException("invalid enemy type");
+    public double getY() {
+        return this.store.y[this.slot];
     }
 
-    // get the cooldown time before this thing can shoot again, based on what type it is
-    public double getCooldownTime() {
-        switch (this.type) {
-            case ship1: return 1;
-            case ship2: return 1;
-            case ship3: return 1;
-            case ship4: return 1;
-        }
-        throw new RuntimeException("invalid enemy type");
+    // time that this thing last fired a projectile. used to figure out when they can fire another.
+    public double getLastShot() {
+        return this.store.lastShot[this.slot];
     }
 }
@@ -0,0 +1,393 @@
+package jspace;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Holds the data for a whole group of game objects (eg. all the enemies) in a few big arrays,
+ * one array per field, instead of as lots of separate objects. Each object is a 'slot', which is
+ * just an index into the arrays, so the x position of the object in slot 3 is x[3].
+ *
+ * This is much faster to loop over than a list of objects when there are thousands of them,
+ * because the data is all next to each other in memory. The live objects are kept packed into the
+ * first slots: release() just marks an object as dead, and at the end of each tick compact() fills
+ * each gap by moving the last object into it, so removing an object never means shifting all the
+ * others along. The arrays are reused, so once they're big enough, spawning and destroying objects
+ * doesn't create any garbage for the garbage collector to clean up.
+ *
+ * Because compact() moves objects between slots, a slot number is only good until the end of the
+ * tick. Anything which needs to keep track of an object for longer should use its handle instead
+ * (see getHandle and getSlot), which stays the same for as long as the object is alive.
+ */
+public class EntityStore {
+    // x,y position in the game world
+    public double[] x;
+    public double[] y;
+    // x,y position at the end of the previous update, so things can be drawn part way between
+    // where they were and where they are now (see Game.draw)
+    public double[] previousX;
+    public double[] previousY;
+    // time that this thing last fired a projectile. used to figure out when they can fire another.
+    public double[] lastShot;
+    // the type of each object, as its id in the game's Archetypes
+    public byte[] type;
+    // whether each slot currently has an object in it. after compact() every slot below size does
+    public boolean[] alive;
+    // the handle of the object in each slot
+    public int[] handle;
+
+    // slots below this are in use (or were until something was released this tick), so loops over
+    // the store only need to go up to here
+    public int size = 0;
+    // how many slots currently have an object in them
+    public int liveCount = 0;
+    // how many objects of each type are in the store, indexed by type id
+    public final int[] liveCountByType;
+
+    // the most objects that have ever been in the store at once. if this is a lot lower than the
+    // capacity, the pool size could be made smaller
+    public int highWaterMark = 0;
+    // how many times the arrays have had to be made bigger. if this keeps going up, the pool size should be bigger
+    public int timesGrown = 0;
+    // how many times acquire() failed because the store was full and not allowed to grow
+    public int acquireFailures = 0;
+    // how many objects compact() has moved to fill in gaps
+    public long objectsMoved = 0;
+
+    // a handle is made of an index into the arrays below, plus a 'generation' in the top bits which goes
+    // up every time the index gets reused. that way an old handle to an object which has gone can't
+    // accidentally refer to a new object which got the same index
+    private static final int HANDLE_INDEX_BITS = 22;
+    private static final int HANDLE_INDEX_MASK = (1 << HANDLE_INDEX_BITS) - 1;
+    private static final int HANDLE_GENERATION_MASK = (1 << (32 - HANDLE_INDEX_BITS)) - 1;
+    // handle indexes are always below this
+    public static final int MAX_HANDLE_INDEXES = 1 << HANDLE_INDEX_BITS;
+    // for each handle index, the slot its object is in (or -1 if it isn't in use), and its generation
+    private int[] slotOfHandle;
+    private int[] generationOfHandle;
+    // handle indexes which aren't in use, and how many handle indexes have ever been used
+    private int[] freeHandles;
+    private int freeHandleCount = 0;
+    private int handleCount = 0;
+    // whether the arrays are allowed to get bigger than the capacity they started with
+    private boolean canGrow;
+
+    // typeCount is how many types of object there are (see Archetypes). initialCapacity is how many
+    // objects there's room for up front. if canGrow is false, that's the most objects the store will ever hold
+    EntityStore(int typeCount, int initialCapacity, boolean canGrow) {
+        this.canGrow = canGrow;
+        this.liveCountByType = new int[typeCount];
+        this.x = new double[initialCapacity];
+        this.y = new double[initialCapacity];
+        this.previousX = new double[initialCapacity];
+        this.previousY = new double[initialCapacity];
+        this.lastShot = new double[initialCapacity];
+        this.type = new byte[initialCapacity];
+        this.alive = new boolean[initialCapacity];
+        this.handle = new int[initialCapacity];
+        this.slotOfHandle = new int[initialCapacity];
+        this.generationOfHandle = new int[initialCapacity];
+        this.freeHandles = new int[initialCapacity];
+    }
+
+    // put a new object in the store, and return the slot it went into. it always goes in after all
+    // the other objects, even if some were released this tick, so the slots being looped over don't
+    // change under the loop. if the store is full and isn't allowed to grow, nothing is added and this
+    // returns -1
+    public int acquire(int type, double x, double y) {
+        if (this.size == this.x.length) {
+            if (!this.canGrow) {
+                this.acquireFailures++;
+                return -1;
+            }
+            this.grow();
+        }
+        int slot = this.size++;
+        this.x[slot] = x;
+        this.y[slot] = y;
+        // a new object wasn't anywhere before this, so it shouldn't be drawn moving from somewhere else
+        this.previousX[slot] = x;
+        this.previousY[slot] = y;
+        this.lastShot[slot] = 0;
+        this.type[slot] = (byte) type;
+        this.alive[slot] = true;
+        this.handle[slot] = this.newHandle(slot);
+        this.liveCount++;
+        this.liveCountByType[this.type[slot]]++;
+        this.highWaterMark = Math.max(this.highWaterMark, this.liveCount);
+        return slot;
+    }
+
+    // take the object out of the store. its slot gets filled in by compact() at the end of the tick,
+    // but its handle stops working straight away
+    public void release(int slot) {
+        if (!this.alive[slot]) {
+            return;
+        }
+        this.alive[slot] = false;
+        this.liveCount--;
+        this.liveCountByType[this.type[slot]]--;
+
+        int handleIndex = this.handle[slot] & HANDLE_INDEX_MASK;
+        this.slotOfHandle[handleIndex] = -1;
+        this.generationOfHandle[handleIndex] = (this.generationOfHandle[handleIndex] + 1) & HANDLE_GENERATION_MASK;
+        this.freeHandles[this.freeHandleCount++] = handleIndex;
+    }
+
+    // fill in the gaps left by objects released since the last compact(), by moving the last object in
+    // the store into each one, so that all the live objects are in slots 0 to size-1 again. this moves
+    // objects to different slots, so it has to wait until nothing is holding on to slot numbers (ie.
+    // the end of the tick)
+    public void compact() {
+        int slot = 0;
+        while (slot < this.size) {
+            if (this.alive[slot]) {
+                slot++;
+                continue;
+            }
+            // take the last object off the end, and if it isn't this one, move it into this slot. then
+            // look at this slot again, in case the object we moved in was dead too
+            int last = --this.size;
+            if (slot < last) {
+                this.moveObject(last, slot);
+            }
+        }
+    }
+
+    // the handle of the object in the given slot, which keeps referring to it even after compact()
+    public int getHandle(int slot) {
+        return this.handle[slot];
+    }
+
+    // the slot the object with the given handle is in now, or -1 if the object has been released
+    public int getSlot(int handle) {
+        int handleIndex = handle & HANDLE_INDEX_MASK;
+        if (handleIndex >= this.handleCount || this.generationOfHandle[handleIndex] != handle >>> HANDLE_INDEX_BITS) {
+            return -1;
+        }
+        return this.slotOfHandle[handleIndex];
+    }
+
+    // just the index part of a handle. no two live objects in a store have the same one, and it's never
+    // more than the most objects the store has held at once, so it can be used as a small id for an
+    // object (see NetWorldState). unlike the whole handle, it does get reused once the object is gone
+    public static int getHandleIndex(int handle) {
+        return handle & HANDLE_INDEX_MASK;
+    }
+
+    // remove everything. the arrays are kept, so filling the store up again won't allocate anything
+    public void clear() {
+        for (int slot = 0; slot < this.size; slot++) {
+            this.release(slot);
+        }
+        this.size = 0;
+    }
+
+    // make this store hold exactly the same objects, in the same slots and with the same handles, as
+    // another store. this only allocates if the other store has more room in it than this one
+    public void copyFrom(EntityStore other) {
+        while (this.x.length < other.x.length) {
+            this.grow();
+        }
+        System.arraycopy(other.x, 0, this.x, 0, other.size);
+        System.arraycopy(other.y, 0, this.y, 0, other.size);
+        System.arraycopy(other.previousX, 0, this.previousX, 0, other.size);
+        System.arraycopy(other.previousY, 0, this.previousY, 0, other.size);
+        System.arraycopy(other.lastShot, 0, this.lastShot, 0, other.size);
+        System.arraycopy(other.type, 0, this.type, 0, other.size);
+        System.arraycopy(other.alive, 0, this.alive, 0, other.size);
+        System.arraycopy(other.handle, 0, this.handle, 0, other.size);
+        if (this.size > other.size) {
+            Arrays.fill(this.alive, other.size, this.size, false);
+        }
+        this.size = other.size;
+        this.liveCount = other.liveCount;
+        System.arraycopy(other.liveCountByType, 0, this.liveCountByType, 0, this.liveCountByType.length);
+
+        System.arraycopy(other.slotOfHandle, 0, this.slotOfHandle, 0, other.handleCount);
+        System.arraycopy(other.generationOfHandle, 0, this.generationOfHandle, 0, other.handleCount);
+        System.arraycopy(other.freeHandles, 0, this.freeHandles, 0, other.freeHandleCount);
+        this.handleCount = other.handleCount;
+        this.freeHandleCount = other.freeHandleCount;
+    }
+
+    // how many bytes writeState() will write
+    public int getStateSize() {
+        return 4 * 4 + this.size * (8 * 5 + 1 + 1 + 4) + this.handleCount * (4 + 4) + this.freeHandleCount * 4;
+    }
+
+    // write everything needed to put the store back exactly as it is now (see readState) into the buffer.
+    // each array goes in with one bulk copy rather than an object at a time, which is a lot faster with
+    // a direct buffer (see RewindBuffer)
+    public void writeState(ByteBuffer buffer) {
+        buffer.putInt(this.size);
+        buffer.putInt(this.liveCount);
+        buffer.putInt(this.handleCount);
+        buffer.putInt(this.freeHandleCount);
+        putDoubles(buffer, this.x, this.size);
+        putDoubles(buffer, this.y, this.size);
+        putDoubles(buffer, this.previousX, this.size);
+        putDoubles(buffer, this.previousY, this.size);
+        putDoubles(buffer, this.lastShot, this.size);
+        buffer.put(this.type, 0, this.size);
+        for (int slot = 0; slot < this.size; slot++) {
+            buffer.put((byte) (this.alive[slot] ? 1 : 0));
+        }
+        putInts(buffer, this.handle, this.size);
+        putInts(buffer, this.slotOfHandle, this.handleCount);
+        putInts(buffer, this.generationOfHandle, this.handleCount);
+        putInts(buffer, this.freeHandles, this.freeHandleCount);
+    }
+
+    // put the store back the way it was when writeState() wrote what's in the buffer. like copyFrom(),
+    // this only allocates if there wasn't room for that many objects
+    public void readState(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        int liveCount = buffer.getInt();
+        int handleCount = buffer.getInt();
+        int freeHandleCount = buffer.getInt();
+        while (this.x.length < Math.max(size, handleCount)) {
+            this.grow();
+        }
+        if (this.size > size) {
+            Arrays.fill(this.alive, size, this.size, false);
+        }
+        this.size = size;
+        this.liveCount = liveCount;
+        this.handleCount = handleCount;
+        this.freeHandleCount = freeHandleCount;
+        getDoubles(buffer, this.x, size);
+        getDoubles(buffer, this.y, size);
+        getDoubles(buffer, this.previousX, size);
+        getDoubles(buffer, this.previousY, size);
+        getDoubles(buffer, this.lastShot, size);
+        buffer.get(this.type, 0, size);
+        Arrays.fill(this.liveCountByType, 0);
+        for (int slot = 0; slot < size; slot++) {
+            this.alive[slot] = buffer.get() != 0;
+            if (this.alive[slot]) {
+                this.liveCountByType[this.type[slot]]++;
+            }
+        }
+        getInts(buffer, this.handle, size);
+        getInts(buffer, this.slotOfHandle, handleCount);
+        getInts(buffer, this.generationOfHandle, handleCount);
+        getInts(buffer, this.freeHandles, freeHandleCount);
+        this.highWaterMark = Math.max(this.highWaterMark, liveCount);
+    }
+
+    // copying a whole array into a ByteBuffer in one go needs a DoubleBuffer or IntBuffer 'view' of it,
+    // which is a new object every time. for short arrays that isn't worth it, so they're copied one value
+    // at a time instead, and a snapshot of a normal sized world doesn't make any garbage
+    private static final int BULK_COPY_THRESHOLD = 256;
+
+    static void putDoubles(ByteBuffer buffer, double[] values, int count) {
+        if (count < BULK_COPY_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                buffer.putDouble(values[i]);
+            }
+            return;
+        }
+        buffer.asDoubleBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * 8);
+    }
+
+    static void getDoubles(ByteBuffer buffer, double[] values, int count) {
+        if (count < BULK_COPY_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                values[i] = buffer.getDouble();
+            }
+            return;
+        }
+        buffer.asDoubleBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * 8);
+    }
+
+    static void putInts(ByteBuffer buffer, int[] values, int count) {
+        if (count < BULK_COPY_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(values[i]);
+            }
+            return;
+        }
+        buffer.asIntBuffer().put(values, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+
+    static void getInts(ByteBuffer buffer, int[] values, int count) {
+        if (count < BULK_COPY_THRESHOLD) {
+            for (int i = 0; i < count; i++) {
+                values[i] = buffer.getInt();
+            }
+            return;
+        }
+        buffer.asIntBuffer().get(values, 0, count);
+        buffer.position(buffer.position() + count * 4);
+    }
+
+    // remember where everything is now, before it gets moved by the next update
+    public void savePreviousPositions() {
+        System.arraycopy(this.x, 0, this.previousX, 0, this.size);
+        System.arraycopy(this.y, 0, this.previousY, 0, this.size);
+    }
+
+    public int getCapacity() {
+        return this.x.length;
+    }
+
+    // a summary of how full the store is, for printing out
+    public String getStats() {
+        return "live=" + this.liveCount
+            + " highWaterMark=" + this.highWaterMark
+            + " capacity=" + this.getCapacity()
+            + " timesGrown=" + this.timesGrown
+            + " acquireFailures=" + this.acquireFailures
+            + " objectsMoved=" + this.objectsMoved;
+    }
+
+    // make all the arrays twice as big when we run out of room
+    private void grow() {
+        int newCapacity = Math.max(16, this.x.length * 2);
+        this.x = Arrays.copyOf(this.x, newCapacity);
+        this.y = Arrays.copyOf(this.y, newCapacity);
+        this.previousX = Arrays.copyOf(this.previousX, newCapacity);
+        this.previousY = Arrays.copyOf(this.previousY, newCapacity);
+        this.lastShot = Arrays.copyOf(this.lastShot, newCapacity);
+        this.type = Arrays.copyOf(this.type, newCapacity);
+        this.alive = Arrays.copyOf(this.alive, newCapacity);
+        this.handle = Arrays.copyOf(this.handle, newCapacity);
+        this.slotOfHandle = Arrays.copyOf(this.slotOfHandle, newCapacity);
+        this.generationOfHandle = Arrays.copyOf(this.generationOfHandle, newCapacity);
+        this.freeHandles = Arrays.copyOf(this.freeHandles, newCapacity);
+        this.timesGrown++;
+    }
+
+    // give the object in the given slot a handle, reusing one of an object which has been released
+    // if there are any
+    private int newHandle(int slot) {
+        int handleIndex;
+        if (this.freeHandleCount > 0) {
+            handleIndex = this.freeHandles[--this.freeHandleCount];
+        } else {
+            handleIndex = this.handleCount++;
+        }
+        this.slotOfHandle[handleIndex] = slot;
+        return (this.generationOfHandle[handleIndex] << HANDLE_INDEX_BITS) | handleIndex;
+    }
+
+    private void moveObject(int from, int to) {
+        this.x[to] = this.x[from];
+        this.y[to] = this.y[from];
+        this.previousX[to] = this.previousX[from];
+        this.previousY[to] = this.previousY[from];
+        this.lastShot[to] = this.lastShot[from];
+        this.type[to] = this.type[from];
+        this.alive[to] = this.alive[from];
+        this.handle[to] = this.handle[from];
+        this.alive[from] = false;
+        if (this.alive[to]) {
+            this.slotOfHandle[this.handle[to] & HANDLE_INDEX_MASK] = to;
+            this.objectsMoved++;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package jspace;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * Keeps track of when each enemy can next fire, so the game doesn't have to check every single enemy's
+ * cooldown every tick. Each entry is an enemy's handle (see EntityStore.getHandle) and the time it can
+ * fire after, kept in a 'binary heap': an array arranged so that the entry which is due soonest is
+ * always first, and adding or removing an entry only takes about log2(number of entries) steps. Each
+ * tick, the game just takes entries off the front until it gets to one which isn't due yet.
+ *
+ * Entries for enemies which have been destroyed aren't removed straight away (finding them would be
+ * slow). Their handles stop working, so they just get skipped when they come off the front.
+ */
+public class FireSchedule {
+    // the heap. entry i comes before entries 2i+1 and 2i+2
+    private double[] dueTime = new double[64];
+    private int[] handle = new int[64];
+    private int count = 0;
+
+    public void clear() {
+        this.count = 0;
+    }
+
+    public int size() {
+        return this.count;
+    }
+
+    // the enemy with the given handle can fire once the time is after dueTime
+    public void add(int handle, double dueTime) {
+        if (this.count == this.dueTime.length) {
+            this.dueTime = Arrays.copyOf(this.dueTime, this.count * 2);
+            this.handle = Arrays.copyOf(this.handle, this.count * 2);
+        }
+        // put it on the end, then swap it toward the front until it's after the one in front of it
+        int i = this.count++;
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (this.dueTime[parent] <= dueTime) {
+                break;
+            }
+            this.dueTime[i] = this.dueTime[parent];
+            this.handle[i] = this.handle[parent];
+            i = parent;
+        }
+        this.dueTime[i] = dueTime;
+        this.handle[i] = handle;
+    }
+
+    // whether the first entry is due at the given time (the same check as time > lastShot + cooldown)
+    public boolean hasDue(double time) {
+        return this.count > 0 && time > this.dueTime[0];
+    }
+
+    // take the first entry off, and return its handle
+    public int removeFirst() {
+        int first = this.handle[0];
+        this.count--;
+        if (this.count > 0) {
+            // move the last entry to the front, then swap it toward the back until it's in order again
+            double dueTime = this.dueTime[this.count];
+            int handle = this.handle[this.count];
+            int i = 0;
+            while (true) {
+                int child = i * 2 + 1;
+                if (child >= this.count) {
+                    break;
+                }
+                if (child + 1 < this.count && this.dueTime[child + 1] < this.dueTime[child]) {
+                    child++;
+                }
+                if (dueTime <= this.dueTime[child]) {
+                    break;
+                }
+                this.dueTime[i] = this.dueTime[child];
+                this.handle[i] = this.handle[child];
+                i = child;
+            }
+            this.dueTime[i] = dueTime;
+            this.handle[i] = handle;
+        }
+        return first;
+    }
+
+    // make this hold exactly the same entries as another one (see Game.copyStateFrom)
+    public void copyFrom(FireSchedule other) {
+        if (this.dueTime.length < other.count) {
+            this.dueTime = new double[other.dueTime.length];
+            this.handle = new int[other.handle.length];
+        }
+        System.arraycopy(other.dueTime, 0, this.dueTime, 0, other.count);
+        System.arraycopy(other.handle, 0, this.handle, 0, other.count);
+        this.count = other.count;
+    }
+
+    public int getStateSize() {
+        return 4 + this.count * (8 + 4);
+    }
+
+    // write the entries into the buffer, in heap order, so readState() gets exactly the same heap back
+    public void writeState(ByteBuffer buffer) {
+        buffer.putInt(this.count);
+        EntityStore.putDoubles(buffer, this.dueTime, this.count);
+        EntityStore.putInts(buffer, this.handle, this.count);
+    }
+
+    public void readState(ByteBuffer buffer) {
+        int count = buffer.getInt();
+        if (this.dueTime.length < count) {
+            this.dueTime = new double[count];
+            this.handle = new int[count];
+        }
+        EntityStore.getDoubles(buffer, this.dueTime, count);
+        EntityStore.getInts(buffer, this.handle, count);
+        this.count = count;
+    }
+}
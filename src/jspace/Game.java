@@ -2,9 +2,11 @@ package jspace;
 
 import java.awt.*;
 import java.awt.image.*;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 public class Game {
     // the AWT graphics object which we can use to draw stuff. this is set in the Main class
@@ -13,328 +15,1149 @@ public class Game {
 	public int screenWidth = 800;
     // the screen height. this is set in the Main class
 	public int screenHeight = 600;
-    // time since the game started running. this is set in the Main class
+    // time since the game started running (in seconds). this goes up by dt each update
     public double time = 0;
-	// the keyboard keys currently pressed. this is set in the Main class
-	public HashSet<String> keysDown;
+	// the player's input for the next tick, made up of the bits in the Input class. this is set in the Main class
+	public int input = 0;
+	// if this is set, the input for every tick gets recorded, so the game can be replayed later
+	public InputRecorder inputRecorder;
+	// where all the randomness in the game comes from. give it a seed to get the same game every time.
+	// its state goes in snapshots too (see writeState), so a restored game carries on the same way
+	public RestorableRandom random = new RestorableRandom();
+	// keeps track of how long each part of update() and draw() takes. set it to null to not time anything
+	// at all, eg. for MatchHost's thousands of matches, where a profiler each would cost more memory than
+	// the worlds themselves
+	public TickProfiler profiler = new TickProfiler();
 	// to keep track of when the last enemy spawned, so we know if its time to spawn another
 	private double lastEnemySpawnTime = 0;
-	// a mapping of the types of game object to their images
-	private HashMap<GameObject.Type, BufferedImage> images;
-	// a list of all the game objects currently in the game world
-	private ArrayList<GameObject> worldObjects;
+	// everything about each type of game object, like how fast it goes (see Archetypes). objects just
+	// keep the id of their type, and look things up in here
+	public final Archetypes archetypes;
+	// the images for each type of game object, all packed into one, which is what they actually get drawn from
+	private SpriteAtlas spriteAtlas;
+	// the shape of each type of object, for collision detection. worked out from the images when they're
+	// loaded. call hitboxes.trimToAlpha() to make them fit the ships more tightly. if this game shares its
+	// GameAssets with other games, this is shared too
+	public Hitboxes hitboxes;
+	// when this is true, objects only collide if solid pixels of their images overlap, not just their
+	// hitboxes. more accurate, but slower for objects whose hitboxes overlap
+	public boolean usePixelPerfectCollision = false;
+	// when this is true, projectiles hit anything they passed through during the tick, not just things
+	// they're touching at the end of it. without this, a projectile which moves further in one tick than
+	// the height of a ship plus itself can skip straight past it (see Hitboxes.sweptOverlapTime)
+	public boolean useSweptCollision = true;
+	// all the enemies currently in the game world
+	private EntityStore enemies;
+	// all the projectiles the player has fired which are still in the game world
+	private EntityStore playerProjectiles;
+	// all the projectiles the enemies have fired which are still in the game world
+	private EntityStore enemyProjectiles;
 	// the player
 	private Player player;
-	// a list of the enemy game object types, which we'll use when randomly selecting one
-	private static final GameObject.Type[] ENEMY_TYPES = {
-        GameObject.Type.ship1,
-        GameObject.Type.ship2,
-        GameObject.Type.ship3,
-        GameObject.Type.ship4,
-	};
+	// when each enemy can next fire, so only the ones which are ready get looked at each tick
+	private FireSchedule fireSchedule = new FireSchedule();
+	// lists of enemy slots which get reused every tick (see updateEnemies and fireReadyEnemies)
+	private final SlotList homingEnemies = new SlotList();
+	private final SlotList enemiesReadyToFire = new SlotList();
+	// the first two ints of a world snapshot (see writeState). the version goes up whenever what's in
+	// one changes
+	static final int STATE_MAGIC = 0x4a535753; // "JSWS"
+	static final int STATE_VERSION = 1;
 	// how often enemies spawn (in seconds)
 	private static final int ENEMY_SPAWN_INTERVAL = 3;
+	// how many enemies and projectiles there's room for when the game starts (see the Game constructor)
+	public static final int DEFAULT_ENEMY_POOL_SIZE = 64;
+	public static final int DEFAULT_PROJECTILE_POOL_SIZE = 256;
 	// distance objects can go out of bounds before being destroyed
 	private static final int OFFSCREEN_SPACE = 200;
+	// when this is true, collision detection first uses a spatial grid to find which objects are near
+	// each other, and only checks those. set it to false to go back to checking every object against
+	// every other one, which is much slower but useful for checking the grid gives the same results
+	public boolean useBroadPhase = true;
+	// the grid used to find nearby objects for collision detection. cells are about the size of a ship
+	private SpatialGrid collisionGrid = new SpatialGrid(64);
+	// whether to print out things like enemies spawning and the player dying. building the log messages
+	// creates garbage every time, so it's off unless it's wanted for debugging (see Main's jspace.logEvents)
+	public boolean logEvents = false;
+	// vectors which get reused for working things out each tick, instead of making new ones every time
+	private final Vector2d playerInput = new Vector2d(0, 0);
+	// passes the latest positions of everything from update() to draw(), which run on different threads
+	private RenderSnapshotBuffer renderSnapshots = new RenderSnapshotBuffer();
+	// set this to false if the game is never going to be drawn (eg. in a MatchHost), to skip copying
+	// everything into a RenderSnapshot every tick
+	public boolean publishRenderSnapshots = true;
+	// if this is set, a snapshot of the world goes into it after every tick, so the game can be rewound
+	// (see RewindBuffer). it can also save them all to a file when the player dies
+	public RewindBuffer rewindBuffer;
+	// how many pairs of objects collision detection has checked this tick (see this.findCollisions)
+	private long collisionPairsTested = 0;
+	// set during collision detection if something hit the player, so we can restart the game once it's done
+	private boolean playerWasHit = false;
+	// when this is true, draw() only clears the parts of the screen something was drawn on recently,
+	// instead of the whole screen (see DirtyRegions). anything else drawn on the screen (like Main's fps
+	// counter) has to be added to this.dirtyRegions too, or it won't get cleared
+	public boolean useDirtyRegions = false;
+	// two frames, because Main draws with two buffers
+	public DirtyRegions dirtyRegions = new DirtyRegions(2);
+	// if this is set, draw() draws everything into an image itself, on several threads, and then draws
+	// that onto the screen, instead of asking Java2D to draw each object (see SoftwareRenderer). it
+	// redraws the whole screen every frame, so useDirtyRegions is ignored
+	public SoftwareRenderer softwareRenderer = null;
+	// when this is true, and there are enough enemies and projectiles to make it worthwhile, they get
+	// updated on several threads at once (see updateWorldObjectsInParallel). the game plays out exactly
+	// the same either way
+	public boolean useParallelUpdate = false;
+	// the threads the parallel update runs on. if this is null it uses the JVM's shared pool of threads
+	// (ForkJoinPool.commonPool()), which has one thread per CPU core
+	public ForkJoinPool updatePool = null;
+	// when this is true, and there are enough objects to make it worthwhile, collision detection looks for
+	// collisions on several threads at once (see updateCollisionDetection). it uses this.updatePool too
+	public boolean useParallelCollision = false;
+	// how many slots of an EntityStore each thread updates at a time in the parallel update
+	static final int PARALLEL_UPDATE_CHUNK_SIZE = 4096;
+	// how many slots each thread looks for collisions for at a time. looking for collisions is a lot
+	// more work per object than updating it, so the chunks are smaller
+	static final int PARALLEL_COLLISION_CHUNK_SIZE = 1024;
+	// the chunks the world gets split into for parallel work (see WorldChunk). they're reused every
+	// tick, so the parallel stages don't make any garbage once there are enough of them
+	private ArrayList<WorldChunk> chunks = new ArrayList<WorldChunk>();
+	private int chunkCount = 0;
+	private RunAllChunks runAllChunks = new RunAllChunks();
 
 
 	Game() {
-		// load all the images and put them into a map of gameobject type to image
-        // then later we can look up the image for a type of gameobject by calling this.images.get(type)
-		this.images = new HashMap<GameObject.Type, BufferedImage>();
-		this.images.put(GameObject.Type.player, Utils.loadImage("images/ship5.png"));
-		this.images.put(GameObject.Type.ship1, Utils.loadImage("images/ship1.png"));
-		this.images.put(GameObject.Type.ship2, Utils.loadImage("images/ship2.png"));
-		this.images.put(GameObject.Type.ship3, Utils.loadImage("images/ship3.png"));
-		this.images.put(GameObject.Type.ship4, Utils.loadImage("images/ship4.png"));
-		this.images.put(GameObject.Type.player_projectile, Utils.loadImage("images/projectile2.png"));
-		this.images.put(GameObject.Type.enemy_projectile, Utils.loadImage("images/projectile3.png"));
+		this(Archetypes.load(Archetypes.DEFAULT_PATH));
+	}
+
+	Game(Archetypes archetypes) {
+		this(new GameAssets(archetypes));
+	}
+
+	Game(GameAssets assets) {
+		this(assets, DEFAULT_ENEMY_POOL_SIZE, DEFAULT_PROJECTILE_POOL_SIZE, true);
+	}
+
+	// the pool sizes are how many enemies and projectiles (of each side) to make room for up front.
+	// if growPools is false, the pools never get any bigger than that, and any enemies or projectiles
+	// which don't fit just don't get spawned. otherwise the pools grow when they fill up.
+	Game(GameAssets assets, int enemyPoolSize, int projectilePoolSize, boolean growPools) {
+		Archetypes archetypes = assets.archetypes;
+		this.archetypes = archetypes;
+		this.profiler.setObjectTypeNames(archetypes.name);
+		this.spriteAtlas = assets.spriteAtlas;
+		this.hitboxes = assets.hitboxes;
+
+		this.enemies = new EntityStore(archetypes.count, enemyPoolSize, growPools);
+		this.playerProjectiles = new EntityStore(archetypes.count, projectilePoolSize, growPools);
+		this.enemyProjectiles = new EntityStore(archetypes.count, projectilePoolSize, growPools);
 
 		this.reset();
 	}
 
 	private void reset() {
 		// init world
-		this.worldObjects = new ArrayList<GameObject>();
+		this.enemies.clear();
+		this.fireSchedule.clear();
+		this.playerProjectiles.clear();
+		this.enemyProjectiles.clear();
 		this.spawnPlayer();
 	}
 
-    // this gets called 60 times a second, before this.draw()
+    // this gets called TICK_RATE times a second (see Main), with dt always the same
 	public void update(double dt) {
+		if (this.inputRecorder != null) {
+			this.inputRecorder.recordInput(this.input);
+		}
+		// we time each stage, so we can see which ones are slow
+		long tickStartTime = this.profiler != null ? System.nanoTime() : 0;
+		long stageStartTime = tickStartTime;
+		this.time += dt;
+		// remember where everything was before moving it, for drawing (see this.draw)
+		this.savePreviousPositions();
         // to prevent the world from getting filled up with junk which is far off the screen,
         // we'll go through and check if each object is out of bounds, and then remove it if it is.
 		this.removeOutOfBoundsObjects();
+		stageStartTime = this.recordStage(TickProfiler.Stage.removeOutOfBounds, stageStartTime);
 		// spawn enemies if it is time to do so
 		this.updateEnemySpawning(dt);
+		stageStartTime = this.recordStage(TickProfiler.Stage.spawning, stageStartTime);
 		// move player or fire a shot based on keys pressed, make sure they don't go out of bounds
 		this.updatePlayer(dt);
+		stageStartTime = this.recordStage(TickProfiler.Stage.player, stageStartTime);
 		// move all of the enemies and projectiles based on the rules they follow
 		this.updateWorldObjects(dt);
+		stageStartTime = this.recordStage(TickProfiler.Stage.worldObjects, stageStartTime);
 		// check if any objects are colliding with any others and take appropriate action
 		this.updateCollisionDetection();
+		stageStartTime = this.recordStage(TickProfiler.Stage.collision, stageStartTime);
+		// things destroyed this tick leave gaps in the EntityStores, which get filled in now that nothing
+		// is looping over them any more
+		this.compactStores();
+		stageStartTime = this.recordStage(TickProfiler.Stage.compact, stageStartTime);
+		// let the drawing thread know where everything is now
+		if (this.publishRenderSnapshots) {
+			this.publishRenderSnapshot(dt);
+		}
+		this.recordStage(TickProfiler.Stage.snapshot, stageStartTime);
+		this.recordObjectCounts();
+		if (this.rewindBuffer != null) {
+			this.rewindBuffer.capture(this);
+		}
+		this.recordStage(TickProfiler.Stage.tick, tickStartTime);
+
+		if (this.inputRecorder != null) {
+			this.inputRecorder.recordEndOfTick(this);
+		}
+	}
+
+	// record that a stage which started at startTime has just finished, if there's a profiler (see
+	// TickProfiler.record)
+	private long recordStage(TickProfiler.Stage stage, long startTime) {
+		return this.profiler != null ? this.profiler.record(stage, startTime) : 0;
+	}
+
+	// let the profiler know how many of each type of object there are, and how much collision detection did
+	private void recordObjectCounts() {
+		if (this.profiler == null) {
+			return;
+		}
+		for (int type = 0; type < this.archetypes.count; type++) {
+			int count = type == this.player.type ? 1 : 0;
+			count += this.enemies.liveCountByType[type];
+			count += this.playerProjectiles.liveCountByType[type];
+			count += this.enemyProjectiles.liveCountByType[type];
+			this.profiler.setLiveObjectCount(type, count);
+		}
+		this.profiler.setCollisionPairsTested(this.collisionPairsTested);
+	}
+
+	void compactStores() {
+		this.enemies.compact();
+		this.playerProjectiles.compact();
+		this.enemyProjectiles.compact();
+	}
+
+	private void savePreviousPositions() {
+		this.player.previousPosition.set(this.player.position);
+		this.enemies.savePreviousPositions();
+		this.playerProjectiles.savePreviousPositions();
+		this.enemyProjectiles.savePreviousPositions();
 	}
 
 	private void updatePlayer(double dt) {
+		this.movePlayer(this.player.position, this.input, dt);
+
+		if ((this.input & Input.FIRE) != 0) {
+			if (this.time > this.player.lastShot + this.archetypes.cooldown[this.player.type]) {
+				this.fireProjectiles(this.player.type, this.player.position.x, this.player.position.y, this.playerProjectiles);
+				this.player.lastShot = this.time;
+			}
+		}
+	}
+
+	// move the player's position for one tick of the given input, keeping it on the screen. NetClient
+	// uses this too, to guess where the player will be before the server says (see NetClient.predict)
+	void movePlayer(Vector2d position, int input, double dt) {
 	    // figure out what movement should be applied to the player based on the keys pressed
-		Vector2d playerInput = new Vector2d(0, 0);
-		if (this.keysDown.contains("W")) {
-			playerInput = playerInput.add(new Vector2d(0, -1));
+		Vector2d playerInput = this.playerInput.set(0, 0);
+		if ((input & Input.UP) != 0) {
+			playerInput.addInPlace(0, -1);
 		}
-		if (this.keysDown.contains("S")) {
-			playerInput = playerInput.add(new Vector2d(0, 1));
+		if ((input & Input.DOWN) != 0) {
+			playerInput.addInPlace(0, 1);
 		}
-		if (this.keysDown.contains("A")) {
-			playerInput = playerInput.add(new Vector2d(-1, 0));
+		if ((input & Input.LEFT) != 0) {
+			playerInput.addInPlace(-1, 0);
 		}
-		if (this.keysDown.contains("D")) {
-			playerInput = playerInput.add(new Vector2d(1, 0));
+		if ((input & Input.RIGHT) != 0) {
+			playerInput.addInPlace(1, 0);
 		}
 
 		// multiply speed by delta time (time since last frame) so we know how far to move
-		double howFarToMove = this.player.getSpeed() * dt;
+		double howFarToMove = this.archetypes.speed[this.player.type] * dt;
 		// the normalizing the vector of directional input (WASD keys) ensures that the player
         // doesn't move faster when pressing two directions at once.
-		Vector2d direction = playerInput.normalize();
+		Vector2d direction = playerInput.normalizeInPlace();
 
 		// apply change to player position
-		this.player.position = this.player.position.add(direction.multiplyScalar(howFarToMove));
-
-		BufferedImage playerImage = this.images.get(GameObject.Type.player);
-		double minX = 0 + playerImage.getWidth() / 2; // left boundary
-		double maxX = this.screenWidth + playerImage.getWidth() / 2; // right boundary
-		double minY = 0 + playerImage.getHeight() / 2; // top boundary
-		double maxY = this.screenHeight + playerImage.getHeight() / 2; // bottom boundary
-		this.player.position.x = Utils.clamp(this.player.position.x, minX, maxX);
-		this.player.position.y = Utils.clamp(this.player.position.y, minY, maxY);
-
-		if (this.keysDown.contains("␣")) { // that's the spacebar key
-			if (this.time > this.player.lastShot + this.player.getCooldownTime()) {
-				this.fireProjectile(this.player);
-			}
-		}
+		position.addInPlace(direction.scaleInPlace(howFarToMove));
+
+		int playerWidth = this.spriteAtlas.getWidth(this.player.type);
+		int playerHeight = this.spriteAtlas.getHeight(this.player.type);
+		double minX = 0 + playerWidth / 2; // left boundary
+		double maxX = this.screenWidth + playerWidth / 2; // right boundary
+		double minY = 0 + playerHeight / 2; // top boundary
+		double maxY = this.screenHeight + playerHeight / 2; // bottom boundary
+		position.x = Utils.clamp(position.x, minX, maxX);
+		position.y = Utils.clamp(position.y, minY, maxY);
 	}
 
 	private void spawnPlayer() {
-		this.player = new Player();
+		// the same Player object gets reused each time the game restarts
+		if (this.player == null) {
+			this.player = new Player(this.archetypes.playerType);
+		}
 		// start in the middle of the screen
 		this.player.position.x = this.screenWidth / 2;
 		this.player.position.y = this.screenHeight / 2;
+		this.player.previousPosition.set(this.player.position);
 		this.player.lastShot = this.time;
-
-		this.worldObjects.add(player);
 	}
 
 	private void updateEnemySpawning(double dt) {
 		// is it time to spawn an enemy?
 		if (this.time > this.lastEnemySpawnTime + ENEMY_SPAWN_INTERVAL) {
 			// randomly pick an enemy type
-			int randomEnemyTypeIndex = (int) Math.floor(Math.random() * ENEMY_TYPES.length);
-			GameObject.Type enemyTypeToSpawn = ENEMY_TYPES[randomEnemyTypeIndex];
+			int[] enemyTypes = this.archetypes.enemyTypes;
+			int randomEnemyTypeIndex = (int) Math.floor(this.random.nextDouble() * enemyTypes.length);
+			int enemyTypeToSpawn = enemyTypes[randomEnemyTypeIndex];
 			this.spawnEnemy(enemyTypeToSpawn);
 			this.lastEnemySpawnTime = this.time;
 		}
 	}
 
-	private void spawnEnemy(GameObject.Type type) {
-		Enemy enemy = new Enemy(type);
+	private void spawnEnemy(int type) {
 		// give enemy random position at top of screen
-		enemy.position.x = Math.random() * this.screenWidth;
-		enemy.position.y = -100; // off top of screen
-		enemy.lastShot = this.time;
-        System.out.println("spawnEnemy "+enemy.toString());
-		this.worldObjects.add(enemy);
-	}
-
-	private void updateWorldObjects(double dt) {
-		// copy the list of world objects before updating them, because we might
-		// add new objects to the world while iterating it (eg. projectiles) and
-		// modifying a arraylist we're iterating is not allowed
-		ArrayList<GameObject> copyOfWorldObjects = new ArrayList<>(this.worldObjects);
-		for (GameObject obj: copyOfWorldObjects) {
-			if (obj instanceof Enemy) {
-				this.updateEnemy((Enemy)obj, dt);
+		int slot = this.enemies.acquire(type, this.random.nextDouble() * this.screenWidth, -100); // off top of screen
+		if (slot == -1) {
+			return; // no room for any more enemies
+		}
+		this.scheduleFiring(slot, this.time);
+		if (this.logEvents) {
+			System.out.println("spawnEnemy "+new Enemy(this.enemies, slot).toString());
+		}
+	}
+
+	// (this and the other update stages which aren't private are called directly by the benchmarks)
+	void updateWorldObjects(double dt) {
+		int totalSize = this.enemies.size + this.playerProjectiles.size + this.enemyProjectiles.size;
+		if (this.useParallelUpdate && totalSize > PARALLEL_UPDATE_CHUNK_SIZE) {
+			this.updateWorldObjectsInParallel(dt);
+			return;
+		}
+
+		// projectiles are updated before enemies, so that projectiles which enemies fire this tick
+		// don't start moving until next tick (same as projectiles fired by the player last tick)
+		this.updateProjectiles(this.playerProjectiles, dt);
+		this.updateProjectiles(this.enemyProjectiles, dt);
+
+		this.updateEnemies(0, this.enemies.size, dt, this.homingEnemies);
+		this.fireReadyEnemies();
+	}
+
+	// the same as the rest of updateWorldObjects, but with the enemies and projectiles split into chunks
+	// which get updated on different threads at the same time. each enemy and projectile only changes
+	// itself, so the chunks don't get in each other's way. firing adds to this.enemyProjectiles, so that
+	// happens afterwards on this thread, for just the enemies which are ready to fire
+	private void updateWorldObjectsInParallel(double dt) {
+		this.chunkCount = 0;
+		this.addChunks(ChunkJob.update, this.playerProjectiles, PARALLEL_UPDATE_CHUNK_SIZE, dt);
+		this.addChunks(ChunkJob.update, this.enemyProjectiles, PARALLEL_UPDATE_CHUNK_SIZE, dt);
+		this.addChunks(ChunkJob.update, this.enemies, PARALLEL_UPDATE_CHUNK_SIZE, dt);
+		this.runChunks(true);
+		this.fireReadyEnemies();
+	}
+
+	// split slots 0 to store.size of a store into chunks of chunkSize slots, which will do the given job
+	private void addChunks(ChunkJob job, EntityStore store, int chunkSize, double dt) {
+		for (int start = 0; start < store.size; start += chunkSize) {
+			if (this.chunkCount == this.chunks.size()) {
+				this.chunks.add(new WorldChunk());
+			}
+			WorldChunk chunk = this.chunks.get(this.chunkCount++);
+			chunk.reinitialize();
+			chunk.job = job;
+			chunk.store = store;
+			chunk.start = start;
+			chunk.end = Math.min(store.size, start + chunkSize);
+			chunk.dt = dt;
+			chunk.collisions.clear();
+			chunk.pairsTested = 0;
+		}
+	}
+
+	// run all the chunks added since chunkCount was last set to 0, either spread over the threads in
+	// this.updatePool, or one after the other on this thread
+	private void runChunks(boolean inParallel) {
+		if (inParallel) {
+			ForkJoinPool pool = this.updatePool != null ? this.updatePool : ForkJoinPool.commonPool();
+			this.runAllChunks.reinitialize();
+			pool.invoke(this.runAllChunks);
+		} else {
+			for (int i = 0; i < this.chunkCount; i++) {
+				this.chunks.get(i).compute();
+			}
+		}
+	}
+
+	private enum ChunkJob {
+		// move the objects (see updateWorldObjectsInParallel)
+		update,
+		// find what the objects are colliding with (see updateCollisionDetection)
+		findCollisions,
+	}
+
+	// a job to do for the slots start to end of one EntityStore. one of these runs on each thread at a time.
+	// a chunk only changes the objects in its own slots, and puts anything else it wants to happen in its
+	// own lists, so the chunks don't get in each other's way
+	private class WorldChunk extends RecursiveAction {
+		ChunkJob job;
+		EntityStore store;
+		int start;
+		int end;
+		double dt;
+		// the collisions this chunk found, and how many pairs of objects it checked to find them
+		final CollisionEvents collisions = new CollisionEvents();
+		long pairsTested;
+		// each chunk needs its own of these, because the chunks are run at the same time
+		final SlotList homingEnemies = new SlotList();
+		final SpatialGrid.QueryResults nearbyEnemies = new SpatialGrid.QueryResults();
+
+		protected void compute() {
+			if (this.job == ChunkJob.findCollisions) {
+				Game.this.findCollisions(this);
+				return;
+			}
+			EntityStore store = this.store;
+			if (store == Game.this.enemies) {
+				Game.this.updateEnemies(this.start, this.end, this.dt, this.homingEnemies);
+				return;
 			}
-			if (obj instanceof Projectile) {
-				this.updateProjectile((Projectile)obj, dt);
+			for (int slot = this.start; slot < this.end; slot++) {
+				if (store.alive[slot]) {
+					Game.this.updateProjectile(store, slot, this.dt);
+				}
 			}
 		}
 	}
 
-	private void updateEnemy(Enemy enemy, double dt) {
+	// hands all the chunks out to the pool's threads and waits for them all to finish
+	private class RunAllChunks extends RecursiveAction {
+		protected void compute() {
+			ArrayList<WorldChunk> chunks = Game.this.chunks;
+			int count = Game.this.chunkCount;
+			// let the other threads take all but the first chunk, and do the first one on this thread
+			for (int i = count - 1; i > 0; i--) {
+				chunks.get(i).fork();
+			}
+			chunks.get(0).invoke();
+			for (int i = 1; i < count; i++) {
+				chunks.get(i).join();
+			}
+		}
+	}
+
+	// move the enemies in slots start to end. this is done a whole step at a time for all of them, rather
+	// than one enemy at a time, so each step is a short loop over the store's arrays which the JIT can
+	// turn into fast machine code, instead of a method call per enemy. homingEnemies gets reused to hold
+	// the enemies which home in on the player. this can run on any thread (see WorldChunk)
+	private void updateEnemies(int start, int end, double dt, SlotList homingEnemies) {
+		EntityStore enemies = this.enemies;
+		boolean[] alive = enemies.alive;
+		byte[] type = enemies.type;
+		double[] x = enemies.x;
+		double[] y = enemies.y;
+		double[] speed = this.archetypes.speed;
+		int[] flags = this.archetypes.flags;
+
 		// enemies move downward
-		double enemySpeed = enemy.getSpeed();
-		enemy.position.y += enemySpeed * dt;
-		// some enemy types also move toward player (but only in the x dimension)
-		if (enemy.type == GameObject.Type.ship2 || enemy.type == GameObject.Type.ship3) {
-			Vector2d vectorTowardPlayer = player.position.subtract(enemy.position).normalize();
-			enemy.position.x += vectorTowardPlayer.x;
+		homingEnemies.clear();
+		for (int slot = start; slot < end; slot++) {
+			if (alive[slot]) {
+				int t = type[slot];
+				y[slot] += speed[t] * dt;
+				if ((flags[t] & Archetypes.FLAG_HOMING) != 0) {
+					homingEnemies.add(slot);
+				}
+			}
 		}
 
-		if (this.time > enemy.lastShot + enemy.getCooldownTime()) {
-			this.fireProjectile(enemy);
+		// some enemy types also move toward player (but only in the x dimension), by the x part of the
+		// direction to the player, ie. the vector to the player normalized
+		double playerX = this.player.position.x;
+		double playerY = this.player.position.y;
+		int[] slots = homingEnemies.slots;
+		int count = homingEnemies.count;
+		for (int i = 0; i < count; i++) {
+			int slot = slots[i];
+			double towardPlayerX = playerX - x[slot];
+			double towardPlayerY = playerY - y[slot];
+			if (towardPlayerX != 0 || towardPlayerY != 0) {
+				x[slot] += towardPlayerX / Math.sqrt(towardPlayerX * towardPlayerX + towardPlayerY * towardPlayerY);
+			}
 		}
 	}
 
-	private void updateProjectile(Projectile projectile, double dt) {
-		// player projectiles go up, enemy projectiles go down
-		int direction = projectile.type == GameObject.Type.player_projectile ? -1 : 1;
-		projectile.position.y += projectile.getSpeed() * dt * direction;
+	// make the enemy in the given slot fire again once its cooldown after lastShot runs out (if it fires at all)
+	private void scheduleFiring(int slot, double lastShot) {
+		EntityStore enemies = this.enemies;
+		int type = enemies.type[slot];
+		enemies.lastShot[slot] = lastShot;
+		if (this.archetypes.fires[type] != -1) {
+			this.fireSchedule.add(enemies.getHandle(slot), lastShot + this.archetypes.cooldown[type]);
+		}
 	}
 
-	private void fireProjectile(GameObject source) {
-		GameObject.Type projectileType = source instanceof Player
-			? GameObject.Type.player_projectile
-			: GameObject.Type.enemy_projectile;
+	// fire from every enemy whose cooldown has run out. the fire schedule gives us just those enemies,
+	// instead of us checking every enemy's cooldown every tick
+	private void fireReadyEnemies() {
+		EntityStore enemies = this.enemies;
+		FireSchedule fireSchedule = this.fireSchedule;
+		SlotList ready = this.enemiesReadyToFire;
+		ready.clear();
+		while (fireSchedule.hasDue(this.time)) {
+			// (enemies which have been destroyed since they were scheduled don't have a slot any more)
+			int slot = enemies.getSlot(fireSchedule.removeFirst());
+			if (slot != -1) {
+				ready.add(slot);
+			}
+		}
+		// fire in slot order, the same order the enemies get updated in, so the projectiles always end up
+		// in the same slots no matter what order the schedule had them in
+		Arrays.sort(ready.slots, 0, ready.count);
+		for (int i = 0; i < ready.count; i++) {
+			int slot = ready.slots[i];
+			this.fireProjectiles(enemies.type[slot], enemies.x[slot], enemies.y[slot], this.enemyProjectiles);
+			this.scheduleFiring(slot, this.time);
+		}
+	}
 
-		Projectile projectile = new Projectile(
-			projectileType
-		);
-		projectile.position = source.position.copy();
-		this.worldObjects.add(projectile);
-
-		if (source instanceof Player) {
-		    this.player.lastShot = this.time;
-        } else if (source instanceof Enemy) {
-		    Enemy enemy = (Enemy)source;
-            enemy.lastShot = this.time;
-        } else {
-            throw new RuntimeException("invalid projectile source");
-        }
-	}
-
-	private void removeOutOfBoundsObjects() {
-        ArrayList<GameObject> objectsToRemove = new ArrayList<GameObject>();
-		for (int i = 0; i < this.worldObjects.size(); i++) {
-			GameObject obj = this.worldObjects.get(i);
+	private void updateProjectiles(EntityStore projectiles, double dt) {
+		for (int slot = 0; slot < projectiles.size; slot++) {
+			if (projectiles.alive[slot]) {
+				this.updateProjectile(projectiles, slot, dt);
+			}
+		}
+	}
+
+	private void updateProjectile(EntityStore projectiles, int slot, double dt) {
+		int type = projectiles.type[slot];
+		// player projectiles go up, enemy projectiles go down (direction is -1 or 1)
+		projectiles.y[slot] += this.archetypes.speed[type] * dt * this.archetypes.direction[type];
+	}
+
+	// fire whatever the given type of thing fires (see Archetypes.fires) from the position x,y, into the
+	// given store. the caller is responsible for updating its lastShot time
+	private void fireProjectiles(int shooterType, double x, double y, EntityStore projectiles) {
+		Archetypes archetypes = this.archetypes;
+		int projectileType = archetypes.fires[shooterType];
+		if (projectileType == -1) {
+			return;
+		}
+		int shots = archetypes.shots[shooterType];
+		for (int shot = 0; shot < shots; shot++) {
+			// spread the shots out side by side, centered on x
+			double shotX = x + (shot - (shots - 1) / 2.0) * archetypes.spread[shooterType];
+			this.fireProjectile(projectiles, projectileType, shotX, y);
+		}
+	}
+
+	// fire a single projectile of the given type from the position x,y
+	private void fireProjectile(EntityStore projectiles, int projectileType, double x, double y) {
+		projectiles.acquire(projectileType, x, y);
+	}
+
+	void removeOutOfBoundsObjects() {
+		this.removeOutOfBoundsObjects(this.enemies);
+		this.removeOutOfBoundsObjects(this.playerProjectiles);
+		this.removeOutOfBoundsObjects(this.enemyProjectiles);
+	}
+
+	private void removeOutOfBoundsObjects(EntityStore store) {
+		for (int slot = 0; slot < store.size; slot++) {
 			if (
-				obj.position.x < 0 - OFFSCREEN_SPACE ||
-				obj.position.x > this.screenWidth + OFFSCREEN_SPACE ||
-				obj.position.y < 0 - OFFSCREEN_SPACE ||
-				obj.position.y > this.screenHeight + OFFSCREEN_SPACE
+				store.alive[slot] && (
+					store.x[slot] < 0 - OFFSCREEN_SPACE ||
+					store.x[slot] > this.screenWidth + OFFSCREEN_SPACE ||
+					store.y[slot] < 0 - OFFSCREEN_SPACE ||
+					store.y[slot] > this.screenHeight + OFFSCREEN_SPACE
+				)
 			) {
-				objectsToRemove.add(obj);
+				store.release(slot);
 			}
 		}
-		this.worldObjects.removeAll(objectsToRemove);
 	}
 
 	private void destroyPlayer() {
-	    System.out.println("ded");
+		if (this.logEvents) {
+			System.out.println("ded");
+		}
+		// save the last few seconds before this happened, if we've been asked to
+		if (this.rewindBuffer != null) {
+			this.rewindBuffer.playerDestroyed();
+		}
 	    // we don't have a game over screen, just restart the game
 		this.reset();
 	}
 
-	private void destroyEnemy(GameObject enemy) {
-		this.worldObjects.remove(enemy);
-	}
-
-	private void destroyProjectile(GameObject projectile) {
-		this.worldObjects.remove(projectile);
-	}
-
-	private void updateCollisionDetection() {
-	    // iterate over a copy of the world objects arraylist because we might add or remove some items
-        // but you can't add or remove items from the list you're currently iterating
-        ArrayList<GameObject> copyOfWorldObjects = new ArrayList<>(this.worldObjects);
-
-        // basically, check every world object against every other one using this.collision() to find out
-        // if they overlap. if they do, then do something specific to the kinds of objects which are colliding.
-		for (GameObject obj: copyOfWorldObjects) {
-			for (GameObject otherObj: copyOfWorldObjects) {
-				if (obj != otherObj) {
-					if (this.collision(obj, otherObj)) {
-					    // okay, these two are colliding, what do?
-						if (
-                            obj instanceof Player
-							&& otherObj instanceof Enemy
-						) {
-							this.destroyPlayer();
-						} else if (obj instanceof Projectile) {
-							if (
-								obj.type == GameObject.Type.player_projectile
-								&& otherObj instanceof Enemy
-							) {
-								this.destroyEnemy(otherObj);
-								this.destroyProjectile(obj);
-							} else if (
-								obj.type == GameObject.Type.enemy_projectile
-								&& otherObj instanceof Player
-							) {
-								this.destroyPlayer();
-							}
-						}
+	private void destroyEnemy(int slot) {
+		this.enemies.release(slot);
+	}
+
+	private void destroyProjectile(EntityStore projectiles, int slot) {
+		projectiles.release(slot);
+	}
+
+	// collision detection happens in two steps. first we find everything that's touching something it
+	// shouldn't, and write those collisions down without changing anything (see findCollisions). that
+	// can be split into chunks and done on several threads at once. then we go through the collisions
+	// in order and destroy things (see resolveCollisions), which has to happen on one thread
+	void updateCollisionDetection() {
+		this.playerWasHit = false;
+		this.collisionPairsTested = 0;
+
+		if (this.useBroadPhase) {
+			this.fillCollisionGrid();
+		}
+
+		this.chunkCount = 0;
+		int totalSize = this.enemies.size + this.playerProjectiles.size + this.enemyProjectiles.size;
+		boolean inParallel = this.useParallelCollision && totalSize > PARALLEL_COLLISION_CHUNK_SIZE;
+		// on one thread there's no point splitting things up, so each store is one big chunk
+		int chunkSize = inParallel ? PARALLEL_COLLISION_CHUNK_SIZE : Integer.MAX_VALUE;
+		// with the grid, the player only needs to look up what's near it once, so that's one chunk
+		int enemyChunkSize = this.useBroadPhase ? Integer.MAX_VALUE : chunkSize;
+		this.addChunks(ChunkJob.findCollisions, this.enemies, enemyChunkSize, 0);
+		this.addChunks(ChunkJob.findCollisions, this.playerProjectiles, chunkSize, 0);
+		this.addChunks(ChunkJob.findCollisions, this.enemyProjectiles, chunkSize, 0);
+		this.runChunks(inParallel);
+
+		this.resolveCollisions();
+
+		// wait until collision detection is done before restarting the game, because restarting
+		// clears out all the objects
+		if (this.playerWasHit) {
+			this.destroyPlayer();
+		}
+	}
+
+	private void fillCollisionGrid() {
+		// enemies are the only things which lots of other things can hit, so put them all in the grid,
+		// using their slot number as their id in the grid
+		EntityStore enemies = this.enemies;
+		Hitboxes hitboxes = this.hitboxes;
+		this.collisionGrid.clear();
+		for (int enemy = 0; enemy < enemies.size; enemy++) {
+			if (enemies.alive[enemy]) {
+				// with swept collision, everywhere the enemy has been this tick needs to be in the grid
+				int type = enemies.type[enemy];
+				double fromX = this.useSweptCollision ? enemies.previousX[enemy] : enemies.x[enemy];
+				double fromY = this.useSweptCollision ? enemies.previousY[enemy] : enemies.y[enemy];
+				this.collisionGrid.insert(
+					enemy,
+					Math.min(fromX, enemies.x[enemy]) + hitboxes.left[type],
+					Math.min(fromY, enemies.y[enemy]) + hitboxes.top[type],
+					Math.max(fromX, enemies.x[enemy]) + hitboxes.right[type],
+					Math.max(fromY, enemies.y[enemy]) + hitboxes.bottom[type]
+				);
+			}
+		}
+	}
+
+	// find the collisions for one chunk of slots. this can run on any thread, so it mustn't change
+	// anything apart from the chunk's own collisions and pairsTested
+	private void findCollisions(WorldChunk chunk) {
+		EntityStore enemies = this.enemies;
+		EntityStore store = chunk.store;
+		CollisionEvents collisions = chunk.collisions;
+		double playerX = this.player.position.x;
+		double playerY = this.player.position.y;
+
+		if (store == enemies) {
+			if (this.useBroadPhase) {
+				// look up which enemies are near the player, and only check those
+				int player = this.player.type;
+				int nearbyCount = this.collisionGrid.query(
+					playerX + this.hitboxes.left[player],
+					playerY + this.hitboxes.top[player],
+					playerX + this.hitboxes.right[player],
+					playerY + this.hitboxes.bottom[player],
+					chunk.nearbyEnemies
+				);
+				int[] nearbyEnemies = chunk.nearbyEnemies.ids;
+				for (int i = 0; i < nearbyCount; i++) {
+					this.findPlayerHitByEnemy(chunk, nearbyEnemies[i]);
+				}
+			} else {
+				for (int enemy = chunk.start; enemy < chunk.end; enemy++) {
+					if (enemies.alive[enemy]) {
+						this.findPlayerHitByEnemy(chunk, enemy);
+					}
+				}
+			}
+		} else if (store == this.playerProjectiles) {
+			for (int projectile = chunk.start; projectile < chunk.end; projectile++) {
+				if (store.alive[projectile]) {
+					int enemy = this.findEnemyHitByProjectile(chunk, projectile, 0);
+					if (enemy != -1) {
+						collisions.add(CollisionEvents.Kind.projectileHitEnemy, projectile, enemy);
+					}
+				}
+			}
+		} else {
+			// there's only one player, so we just check each enemy projectile against it directly
+			for (int projectile = chunk.start; projectile < chunk.end; projectile++) {
+				if (store.alive[projectile]) {
+					chunk.pairsTested++;
+					if (this.projectileHits(
+						store.type[projectile],
+						store.previousX[projectile], store.previousY[projectile], store.x[projectile], store.y[projectile],
+						this.player.type,
+						this.player.previousPosition.x, this.player.previousPosition.y, playerX, playerY
+					)) {
+						collisions.add(CollisionEvents.Kind.projectileHitPlayer, projectile, -1);
 					}
 				}
 			}
 		}
+	}
 
+	private void findPlayerHitByEnemy(WorldChunk chunk, int enemy) {
+		EntityStore enemies = this.enemies;
+		chunk.pairsTested++;
+		if (this.overlaps(
+			this.player.type, this.player.position.x, this.player.position.y,
+			enemies.type[enemy], enemies.x[enemy], enemies.y[enemy]
+		)) {
+			chunk.collisions.add(CollisionEvents.Kind.enemyHitPlayer, enemy, -1);
+		}
 	}
 
-    // checks for rectangular overlap between two objects
-    private boolean collision(GameObject a, GameObject b) {
-        // work out the corners (x1,x2,y1,y1) of each rectangle
-        double aWidth = this.images.get(a.type).getWidth();
-        double aHeight = this.images.get(a.type).getHeight();
-        double ax1 = a.position.x - aWidth/2;
-        double ax2 = a.position.x + aWidth/2;
-        double ay1 = a.position.y - aHeight/2;
-        double ay2 = a.position.y + aHeight/2;
+	// find the first enemy, starting from slot firstEnemy, which the projectile is touching, or -1 if
+	// there isn't one. we check either the enemies the grid says are nearby or every single one, but
+	// either way in slot order, which resolveCollisions relies on
+	private int findEnemyHitByProjectile(WorldChunk chunk, int projectile, int firstEnemy) {
+		EntityStore enemies = this.enemies;
+		if (this.useBroadPhase) {
+			// look up everything near where the projectile has been this tick
+			EntityStore projectiles = this.playerProjectiles;
+			int type = projectiles.type[projectile];
+			double x = projectiles.x[projectile];
+			double y = projectiles.y[projectile];
+			double fromX = this.useSweptCollision ? projectiles.previousX[projectile] : x;
+			double fromY = this.useSweptCollision ? projectiles.previousY[projectile] : y;
+			int nearbyCount = this.collisionGrid.query(
+				Math.min(fromX, x) + this.hitboxes.left[type],
+				Math.min(fromY, y) + this.hitboxes.top[type],
+				Math.max(fromX, x) + this.hitboxes.right[type],
+				Math.max(fromY, y) + this.hitboxes.bottom[type],
+				chunk.nearbyEnemies
+			);
+			int[] nearbyEnemies = chunk.nearbyEnemies.ids;
+			for (int i = 0; i < nearbyCount; i++) {
+				int enemy = nearbyEnemies[i];
+				if (enemy >= firstEnemy && enemies.alive[enemy] && this.isEnemyHitByProjectile(chunk, enemy, projectile)) {
+					return enemy;
+				}
+			}
+		} else {
+			for (int enemy = firstEnemy; enemy < enemies.size; enemy++) {
+				if (enemies.alive[enemy] && this.isEnemyHitByProjectile(chunk, enemy, projectile)) {
+					return enemy;
+				}
+			}
+		}
+		return -1;
+	}
 
-        double bWidth = this.images.get(b.type).getWidth();
-        double bHeight = this.images.get(b.type).getHeight();
-        double bx1 = b.position.x - bWidth/2;
-        double bx2 = b.position.x + bWidth/2;
-        double by1 = b.position.y - bHeight/2;
-        double by2 = b.position.y + bHeight/2;
+	private boolean isEnemyHitByProjectile(WorldChunk chunk, int enemy, int projectile) {
+		EntityStore enemies = this.enemies;
+		EntityStore projectiles = this.playerProjectiles;
+		chunk.pairsTested++;
+		return this.projectileHits(
+			projectiles.type[projectile],
+			projectiles.previousX[projectile], projectiles.previousY[projectile], projectiles.x[projectile], projectiles.y[projectile],
+			enemies.type[enemy],
+			enemies.previousX[enemy], enemies.previousY[enemy], enemies.x[enemy], enemies.y[enemy]
+		);
+	}
 
-        return !(
-            ax1 > bx2 ||
-            bx1 > ax2 ||
-            ay1 > by2 ||
-            by1 > ay2
-        );
-    }
+	// go through the collisions every chunk found, in the order they were found, and destroy whatever
+	// got hit. each projectile destroys the first enemy (in slot order) it's touching which hasn't
+	// already been destroyed, which is the same as if we'd destroyed things as soon as we found them.
+	// but while we were finding collisions nothing had been destroyed yet, so two projectiles might
+	// have found the same enemy. the second one to get here then carries on looking from the enemy
+	// after that one. this only happens when a few projectiles hit the same enemy at once, so it's much
+	// quicker than finding every enemy each projectile touches up front
+	private void resolveCollisions() {
+		EntityStore enemies = this.enemies;
+		EntityStore projectiles = this.playerProjectiles;
+		for (int i = 0; i < this.chunkCount; i++) {
+			WorldChunk chunk = this.chunks.get(i);
+			CollisionEvents collisions = chunk.collisions;
+			for (int j = 0; j < collisions.count; j++) {
+				switch (collisions.kind[j]) {
+					case enemyHitPlayer:
+					case projectileHitPlayer:
+						this.playerWasHit = true;
+						break;
+					case projectileHitEnemy:
+						int projectile = collisions.a[j];
+						int enemy = collisions.b[j];
+						if (!enemies.alive[enemy]) {
+							// an earlier projectile already destroyed it
+							enemy = this.findEnemyHitByProjectile(chunk, projectile, enemy + 1);
+						}
+						if (enemy != -1) {
+							this.destroyEnemy(enemy);
+							this.destroyProjectile(projectiles, projectile);
+						}
+						break;
+				}
+			}
+			// (after the loop, because looking again above counts pairs too)
+			this.collisionPairsTested += chunk.pairsTested;
+		}
+	}
 
-    // this gets called 60 times a second, after this.update()
-	public void draw() {
-	    // the black void of space
-		this.drawBackground();
+	// checks whether two objects overlap, given their type ids and positions. see Hitboxes
+	private boolean overlaps(int aType, double ax, double ay, int bType, double bx, double by) {
+		Hitboxes hitboxes = this.hitboxes;
+		if (!hitboxes.overlaps(aType, ax, ay, bType, bx, by)) {
+			return false;
+		}
+		return !this.usePixelPerfectCollision || hitboxes.pixelsOverlap(aType, ax, ay, bType, bx, by);
+	}
 
-		// first draw all projectiles
-		for (GameObject obj : this.worldObjects) {
-			if (obj instanceof Projectile) {
-				this.drawObject(obj);
+	// checks whether a projectile hit something (a ship) this tick, given their type ids and
+	// where they were at the start (x0,y0) and end (x1,y1) of the tick
+	private boolean projectileHits(
+		int projectileType, double px0, double py0, double px1, double py1,
+		int targetType, double tx0, double ty0, double tx1, double ty1
+	) {
+		// if they're touching at the end of the tick, that's a hit either way
+		if (this.overlaps(projectileType, px1, py1, targetType, tx1, ty1)) {
+			return true;
+		}
+		if (!this.useSweptCollision) {
+			return false;
+		}
+		double hitTime = this.hitboxes.sweptOverlapTime(projectileType, px0, py0, px1, py1, targetType, tx0, ty0, tx1, ty1);
+		if (hitTime < 0) {
+			return false;
+		}
+		if (!this.usePixelPerfectCollision) {
+			return true;
+		}
+		// their hitboxes crossed, but we need to know if any solid pixels did, so check the images at
+		// about every pixel they moved relative to each other between the hitboxes first touching and
+		// the end of the tick
+		double moveX = (px1 - px0) - (tx1 - tx0);
+		double moveY = (py1 - py0) - (ty1 - ty0);
+		int steps = Math.max(1, (int) Math.ceil(Math.sqrt(moveX * moveX + moveY * moveY) * (1 - hitTime)));
+		for (int step = 0; step < steps; step++) {
+			double t = hitTime + (1 - hitTime) * step / steps;
+			if (this.hitboxes.pixelsOverlap(
+				projectileType, px0 + (px1 - px0) * t, py0 + (py1 - py0) * t,
+				targetType, tx0 + (tx1 - tx0) * t, ty0 + (ty1 - ty0) * t
+			)) {
+				return true;
 			}
 		}
-		// then draw everything else (ships/player) on top
-		for (GameObject obj : this.worldObjects) {
-			if (!(obj instanceof Projectile)) {
-				this.drawObject(obj);
+		return false;
+	}
+
+	// put an object straight into the game world. the benchmarks use this to set up worlds with lots of stuff in them
+	void addObject(int type, double x, double y) {
+		switch (this.archetypes.kind[type]) {
+			case Archetypes.KIND_PLAYER:
+				this.player.position.set(x, y);
+				this.player.previousPosition.set(x, y);
+				break;
+			case Archetypes.KIND_PROJECTILE:
+				// the type the player fires goes with the player's projectiles, and anything else with the enemies'
+				if (type == this.archetypes.fires[this.player.type]) {
+					this.playerProjectiles.acquire(type, x, y);
+				} else {
+					this.enemyProjectiles.acquire(type, x, y);
+				}
+				break;
+			default:
+				int slot = this.enemies.acquire(type, x, y);
+				if (slot != -1) {
+					this.scheduleFiring(slot, this.time);
+				}
+		}
+	}
+
+	// make this game's world exactly the same as another game's. the benchmarks use this to put the world
+	// back the way it was before each run, so every run does the same amount of work
+	void copyStateFrom(Game other) {
+		this.time = other.time;
+		this.lastEnemySpawnTime = other.lastEnemySpawnTime;
+		this.screenWidth = other.screenWidth;
+		this.screenHeight = other.screenHeight;
+		this.player.position.set(other.player.position);
+		this.player.previousPosition.set(other.player.previousPosition);
+		this.player.lastShot = other.player.lastShot;
+		this.enemies.copyFrom(other.enemies);
+		this.fireSchedule.copyFrom(other.fireSchedule);
+		this.playerProjectiles.copyFrom(other.playerProjectiles);
+		this.enemyProjectiles.copyFrom(other.enemyProjectiles);
+	}
+
+	// how many bytes writeState() will write
+	public int getStateSize() {
+		return 4 * 5 + 8 * 3 + 8 * 5
+			+ this.fireSchedule.getStateSize()
+			+ this.enemies.getStateSize()
+			+ this.playerProjectiles.getStateSize()
+			+ this.enemyProjectiles.getStateSize();
+	}
+
+	// write everything needed to put the game world back exactly as it is now into the buffer, starting
+	// at its position: the time, the random number generator, the player, every enemy and projectile with
+	// its lastShot, and when everything will next fire. it's all written straight into the buffer, so
+	// nothing gets allocated however many objects there are. this should only be called between ticks
+	public void writeState(ByteBuffer buffer) {
+		buffer.putInt(STATE_MAGIC);
+		buffer.putInt(STATE_VERSION);
+		buffer.putInt(this.archetypes.count);
+		buffer.putInt(this.screenWidth);
+		buffer.putInt(this.screenHeight);
+		buffer.putDouble(this.time);
+		buffer.putDouble(this.lastEnemySpawnTime);
+		buffer.putLong(this.random.getState());
+		buffer.putDouble(this.player.position.x);
+		buffer.putDouble(this.player.position.y);
+		buffer.putDouble(this.player.previousPosition.x);
+		buffer.putDouble(this.player.previousPosition.y);
+		buffer.putDouble(this.player.lastShot);
+		this.fireSchedule.writeState(buffer);
+		this.enemies.writeState(buffer);
+		this.playerProjectiles.writeState(buffer);
+		this.enemyProjectiles.writeState(buffer);
+	}
+
+	// put the game world back the way it was when writeState() wrote what's in the buffer. after this,
+	// the game plays out exactly the same as it did from that point, given the same input
+	public void readState(ByteBuffer buffer) {
+		if (buffer.getInt() != STATE_MAGIC) {
+			throw new RuntimeException("not a jspace world snapshot");
+		}
+		int version = buffer.getInt();
+		if (version != STATE_VERSION) {
+			throw new RuntimeException("world snapshot is version " + version + ", but this game can only read version " + STATE_VERSION);
+		}
+		int typeCount = buffer.getInt();
+		if (typeCount != this.archetypes.count) {
+			throw new RuntimeException("world snapshot has " + typeCount + " types of object, but this game has " + this.archetypes.count);
+		}
+		this.screenWidth = buffer.getInt();
+		this.screenHeight = buffer.getInt();
+		this.time = buffer.getDouble();
+		this.lastEnemySpawnTime = buffer.getDouble();
+		this.random.setState(buffer.getLong());
+		this.player.position.x = buffer.getDouble();
+		this.player.position.y = buffer.getDouble();
+		this.player.previousPosition.x = buffer.getDouble();
+		this.player.previousPosition.y = buffer.getDouble();
+		this.player.lastShot = buffer.getDouble();
+		this.fireSchedule.readState(buffer);
+		this.enemies.readState(buffer);
+		this.playerProjectiles.readState(buffer);
+		this.enemyProjectiles.readState(buffer);
+	}
+
+	// works out a number from everything in the game world, which will be different if anything at all
+	// is different. if two games have the same checksum after the same tick, they're (almost certainly)
+	// exactly the same, which lets us check that a change to the code doesn't change how the game plays
+	public long getChecksum() {
+		long checksum = 0xcbf29ce484222325L;
+		checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(this.time));
+		checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(this.lastEnemySpawnTime));
+		checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(this.player.position.x));
+		checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(this.player.position.y));
+		checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(this.player.lastShot));
+		checksum = this.mixStoreIntoChecksum(checksum, this.enemies);
+		checksum = this.mixStoreIntoChecksum(checksum, this.playerProjectiles);
+		checksum = this.mixStoreIntoChecksum(checksum, this.enemyProjectiles);
+		return checksum;
+	}
+
+	private long mixStoreIntoChecksum(long checksum, EntityStore store) {
+		checksum = mixIntoChecksum(checksum, store.liveCount);
+		for (int slot = 0; slot < store.size; slot++) {
+			if (store.alive[slot]) {
+				checksum = mixIntoChecksum(checksum, slot);
+				checksum = mixIntoChecksum(checksum, store.type[slot]);
+				checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(store.x[slot]));
+				checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(store.y[slot]));
+				checksum = mixIntoChecksum(checksum, Double.doubleToLongBits(store.lastShot[slot]));
 			}
 		}
+		return checksum;
 	}
 
-	private void drawBackground() {
-		// overwrite the contents of the viewport with this color
-		this.graphics.setColor(Color.BLACK);
-		this.graphics.fillRect(0,0, screenWidth, screenHeight);
+	// the FNV-1a hash, but a whole 64 bit number at a time instead of a byte at a time
+	private static long mixIntoChecksum(long checksum, long value) {
+		return (checksum ^ value) * 0x100000001b3L;
+	}
+
+	// copy the type and position of every enemy and projectile into a NetWorldState, for NetServer to send
+	// out. the player is sent separately, at full accuracy
+	void captureNetWorldState(NetWorldState state) {
+		state.clear();
+		this.captureStore(state, this.enemies, 0);
+		this.captureStore(state, this.playerProjectiles, 1);
+		this.captureStore(state, this.enemyProjectiles, 2);
+	}
+
+	private void captureStore(NetWorldState state, EntityStore store, int storeNumber) {
+		for (int slot = 0; slot < store.size; slot++) {
+			if (store.alive[slot]) {
+				int id = NetWorldState.getId(store.handle[slot], storeNumber);
+				state.set(id, store.type[slot], NetProtocol.quantize(store.x[slot]), NetProtocol.quantize(store.y[slot]));
+			}
+		}
+	}
+
+	public double getPlayerX() {
+		return this.player.position.x;
+	}
+
+	public double getPlayerY() {
+		return this.player.position.y;
+	}
+
+	// how many enemies and projectiles there are in the game world right now
+	public int getEnemyCount() {
+		return this.enemies.liveCount;
+	}
+
+	public int getProjectileCount() {
+		return this.playerProjectiles.liveCount + this.enemyProjectiles.liveCount;
+	}
+
+	// how full each of the enemy and projectile pools are, for printing out
+	public String getPoolStats() {
+		return "enemies: " + this.enemies.getStats() + "\n"
+			+ "playerProjectiles: " + this.playerProjectiles.getStats() + "\n"
+			+ "enemyProjectiles: " + this.enemyProjectiles.getStats();
 	}
 
-	private void drawObject(GameObject gameObj) {
-		BufferedImage image = this.images.get(gameObj.type);
-		this.drawImage(
-			image,
-			gameObj.position.x - image.getWidth() / 2,
-			gameObj.position.y - image.getHeight() / 2
+	// copy where everything is into a RenderSnapshot and hand it over to the drawing thread. the objects
+	// go in in the order they should be drawn: first all projectiles, then everything else (ships/player)
+	// on top
+	void publishRenderSnapshot(double dt) {
+		RenderSnapshot snapshot = this.renderSnapshots.getSnapshotToWrite();
+		snapshot.clear();
+		snapshot.addAll(this.playerProjectiles);
+		snapshot.addAll(this.enemyProjectiles);
+		snapshot.addAll(this.enemies);
+		snapshot.add(
+			this.player.type,
+			this.player.position.x,
+			this.player.position.y,
+			this.player.previousPosition.x,
+			this.player.previousPosition.y
 		);
+		snapshot.screenWidth = this.screenWidth;
+		snapshot.screenHeight = this.screenHeight;
+		snapshot.nanosecondsPerTick = (long) (dt * 1000000000);
+		snapshot.publishedAtNanoseconds = System.nanoTime();
+		this.renderSnapshots.publish();
 	}
 
-	private void drawImage(BufferedImage image, double x, double y) {
-		this.graphics.drawImage(
-			image,
-			(int)x,
-			(int)y,
-			null
+	// the same as publishRenderSnapshot(dt), but for a game which isn't being run here at all, and is just
+	// showing the world a NetServer has sent to a NetClient
+	void publishRenderSnapshot(NetClient client, double dt) {
+		RenderSnapshot snapshot = this.renderSnapshots.getSnapshotToWrite();
+		snapshot.clear();
+		NetWorldState world = client.world;
+		// projectiles first, then ships, the same as above. positions only come in once a tick at most,
+		// so there's nothing to draw part way between
+		for (int pass = 0; pass < 2; pass++) {
+			for (int id = 0; id < world.idCount; id++) {
+				int type = world.type[id];
+				if (type == NetWorldState.NONE || (this.archetypes.kind[type] == Archetypes.KIND_PROJECTILE) != (pass == 0)) {
+					continue;
+				}
+				double x = NetProtocol.unquantize(world.x[id]);
+				double y = NetProtocol.unquantize(world.y[id]);
+				snapshot.add(type, x, y, x, y);
+			}
+		}
+		snapshot.add(
+			this.player.type,
+			client.playerPosition.x,
+			client.playerPosition.y,
+			client.previousPlayerPosition.x,
+			client.previousPlayerPosition.y
 		);
+		snapshot.screenWidth = client.screenWidth;
+		snapshot.screenHeight = client.screenHeight;
+		snapshot.nanosecondsPerTick = (long) (dt * 1000000000);
+		snapshot.publishedAtNanoseconds = System.nanoTime();
+		this.renderSnapshots.publish();
+	}
+
+    // this gets called whenever the screen needs to be drawn, usually once after each this.update().
+    // it can be called from a different thread to update(), so it only looks at the latest RenderSnapshot,
+    // never the game world itself
+	public void draw() {
+		long drawStartTime = this.profiler != null ? System.nanoTime() : 0;
+		RenderSnapshot snapshot = this.renderSnapshots.getLatest();
+		// usually we're part way between two updates when drawing, so we draw things part way between
+		// where they were at the previous update and where they are now. that way movement looks smooth
+		// even if the update rate and the screen's frame rate don't match
+		double alpha = snapshot.getInterpolationAlpha(System.nanoTime());
+
+		if (this.softwareRenderer != null) {
+			this.graphics.drawImage(this.softwareRenderer.draw(snapshot, alpha, this.spriteAtlas), 0, 0, null);
+			if (this.profiler != null) {
+				this.profiler.setDrawCounts(this.softwareRenderer.drawn, this.softwareRenderer.culled);
+				this.profiler.record(TickProfiler.Stage.draw, drawStartTime);
+			}
+			return;
+		}
+
+	    // the black void of space
+		this.drawBackground(snapshot);
+
+		// everything is drawn from the same atlas image, and the snapshot has all the objects of each type
+		// next to each other, so Java2D can draw them all in one go without having to switch images
+		SpriteAtlas spriteAtlas = this.spriteAtlas;
+		Graphics graphics = this.graphics;
+		int screenWidth = snapshot.screenWidth;
+		int screenHeight = snapshot.screenHeight;
+		boolean useDirtyRegions = this.useDirtyRegions;
+		int drawn = 0;
+		int culled = 0;
+		for (int i = 0; i < snapshot.count; i++) {
+			int type = snapshot.type[i];
+			int width = spriteAtlas.getWidth(type);
+			int height = spriteAtlas.getHeight(type);
+			double x = snapshot.previousX[i] + (snapshot.x[i] - snapshot.previousX[i]) * alpha;
+			double y = snapshot.previousY[i] + (snapshot.y[i] - snapshot.previousY[i]) * alpha;
+			int left = SpriteAtlas.getCorner(x, width);
+			int top = SpriteAtlas.getCorner(y, height);
+			// things can be up to OFFSCREEN_SPACE off the screen before they're destroyed. there's no point
+			// asking Java2D to draw them if none of them would end up on the screen
+			if (left >= screenWidth || top >= screenHeight || left + width <= 0 || top + height <= 0) {
+				culled++;
+				continue;
+			}
+			spriteAtlas.draw(graphics, type, left, top);
+			if (useDirtyRegions) {
+				this.dirtyRegions.add(left, top, width, height);
+			}
+			drawn++;
+		}
+		if (this.profiler != null) {
+			this.profiler.setDrawCounts(drawn, culled);
+			this.profiler.record(TickProfiler.Stage.draw, drawStartTime);
+		}
+	}
+
+	private void drawBackground(RenderSnapshot snapshot) {
+		if (this.useDirtyRegions) {
+			// only clear where things were drawn in the last few frames
+			this.dirtyRegions.beginFrame(this.graphics, Color.BLACK, snapshot.screenWidth, snapshot.screenHeight);
+			return;
+		}
+		// overwrite the contents of the viewport with this color
+		this.graphics.setColor(Color.BLACK);
+		this.graphics.fillRect(0,0, snapshot.screenWidth, snapshot.screenHeight);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package jspace;
+
+import java.awt.image.BufferedImage;
+
+/*
+ * The things a game loads at startup which never change while it's running: the archetypes, their
+ * images packed into a SpriteAtlas, and the Hitboxes worked out from them. Games normally load their own,
+ * but lots of games running in the same JVM (see MatchHost) can all share one of these instead of each
+ * loading the images again.
+ *
+ * Sharing is safe because games only ever read these. The one exception is the Hitboxes, which can be
+ * changed with trimToAlpha() or setHitbox(), so that should be done before any of the games start, and
+ * it changes them for every game sharing them.
+ *
+ * The images are loaded by a SpriteLoader, which loads them all at once on different threads, and caches
+ * them in SpriteLoader.DEFAULT_CACHE_PATH so they load faster next time.
+ */
+public class GameAssets {
+    public final Archetypes archetypes;
+    public final SpriteAtlas spriteAtlas;
+    public final Hitboxes hitboxes;
+    // how long the images took to load, and how many came from the cache (null if they weren't loaded)
+    public final SpriteLoader spriteLoader;
+
+    GameAssets(Archetypes archetypes) {
+        this(archetypes, SpriteLoader.DEFAULT_CACHE_PATH);
+    }
+
+    // if spriteCachePath is null, the images aren't cached (see SpriteLoader). if any of them can't be
+    // loaded this throws an exception saying which
+    GameAssets(Archetypes archetypes, String spriteCachePath) {
+        this.archetypes = archetypes;
+        // load the image for each type, indexed by type id, converted to the screen's pixel format so
+        // they're quick to draw
+        this.spriteLoader = new SpriteLoader(spriteCachePath);
+        BufferedImage[] images = this.spriteLoader.load(archetypes.sprite);
+        // and pack them all into one image to draw from
+        this.spriteAtlas = new SpriteAtlas(images);
+        this.hitboxes = new Hitboxes(archetypes, images);
+    }
+
+    // use these images for the types instead of loading them (eg. RenderCheck's made up ones), indexed
+    // by type id
+    GameAssets(Archetypes archetypes, BufferedImage[] images) {
+        this.archetypes = archetypes;
+        this.spriteLoader = null;
+        this.spriteAtlas = new SpriteAtlas(images);
+        this.hitboxes = new Hitboxes(archetypes, images);
+    }
+}
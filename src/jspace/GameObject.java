@@ -3,35 +3,22 @@ package jspace;
 /*
  * This is an object in the game world, like an enemy, a projectile, or the player
  */
-public class GameObject {
-    // x,y position in the game world
-    public Vector2d position;
-    // the type of object this is (there are multiple enemy and projectile types)
-    public Type type;
-
-    public enum Type {
-        player,
-        ship1,
-        ship2,
-        ship3,
-        ship4,
-        player_projectile,
-        enemy_projectile,
-    }
+public abstract class GameObject {
+    // the type of object this is, as its id in the game's Archetypes (there are multiple enemy and
+    // projectile types)
+    public int type;
 
-    GameObject(Type type) {
-        this.position = new Vector2d(0, 0);
+    GameObject(int type) {
         this.type = type;
     }
 
-    // get the speed this thing can move
-    public int getSpeed() {
-        return 0;
-    }
+    // x,y position in the game world
+    public abstract double getX();
+    public abstract double getY();
 
     // useful for logging what thing this is, for debugging
     @Override
     public String toString() {
-        return super.toString() + " at " + this.position.toString();
+        return super.toString() + " at {x=" + String.valueOf(this.getX()) + ", y=" + String.valueOf(this.getY()) + "}";
     }
 }
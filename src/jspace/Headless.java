@@ -0,0 +1,279 @@
+package jspace;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+
+/*
+ * Runs the game without a window, as fast as the computer can go, and prints out how fast it went.
+ * This is useful for checking whether a change made the game faster or slower, and for running the
+ * game on computers which don't have a screen.
+ *
+ * Usage: java jspace.Headless [--ticks N] [--seed N] [--tick-rate N] [--width N] [--height N] [--script FILE]
+ *                             [--record FILE] [--replay FILE] [--parallel] [--alpha-hitboxes] [--pixel-perfect]
+ *                             [--no-swept] [--archetypes FILE] [--rewind-seconds N] [--rewind-megabytes N]
+ *                             [--rewind-file FILE] [--dump-on-death DIR] [--restore FILE] [--restore-back N]
+ *                             [--sprite-cache FILE] [--no-sprite-cache]
+ *
+ * Without a --script, the player holds down the fire button and sweeps left and right across the
+ * screen. A script file has one line per change of input, with the tick it happens on and then the
+ * keys which are held down from that tick onwards, eg:
+ *   0 SPACE A
+ *   120 SPACE D
+ * Lines starting with # are ignored.
+ *
+ * --record FILE saves the run so it can be replayed later (see InputRecorder). --replay FILE plays back
+ * a recording, made either here or in the game window with -Djspace.record=FILE, using the seed, tick
+ * rate, screen size and input from the recording. It checks the game goes exactly the same way as
+ * when it was recorded, which is handy for checking that an optimisation didn't change anything.
+ *
+ * --parallel updates the enemies and projectiles, and looks for collisions, on several threads (see
+ * Game.useParallelUpdate and Game.useParallelCollision).
+ *
+ * --alpha-hitboxes shrinks each hitbox to the solid part of its image, and --pixel-perfect only counts
+ * collisions where solid pixels overlap (see Hitboxes). --no-swept only checks for collisions where
+ * things are at the end of each tick, so fast projectiles can pass through ships (see
+ * Game.useSweptCollision). A replay has to use the same ones as the recording.
+ *
+ * --archetypes FILE loads the types of enemies and projectiles from FILE instead of archetypes.cfg (see
+ * Archetypes). A replay has to use the same file as the recording too.
+ *
+ * --rewind-seconds N keeps a snapshot of the world after every tick for the last N seconds (see
+ * RewindBuffer), in up to --rewind-megabytes of memory (64 by default, 2047 at most), or in a file mapped
+ * into memory with --rewind-file FILE. --dump-on-death DIR saves them all into DIR (making it if need be)
+ * every time the player dies (keeping 5 seconds if --rewind-seconds isn't given). --restore FILE starts
+ * the game from the last snapshot in one of those files instead of from the beginning, or from
+ * --restore-back N snapshots before that.
+ *
+ * The decoded images are cached in sprites.cache, or --sprite-cache FILE, so they load faster next time
+ * (see SpriteLoader). --no-sprite-cache always decodes them instead. How long they took to load gets
+ * printed at the start.
+ */
+public class Headless {
+    // how long the built in script holds down each direction for (in ticks)
+    private static final int SWEEP_TICKS = 120;
+
+    public static void main(String[] args) throws IOException {
+        // make sure nothing tries to open a window
+        System.setProperty("java.awt.headless", "true");
+
+        int ticks = 36000;
+        long seed = 1;
+        int tickRate = 60;
+        int width = 800;
+        int height = 600;
+        String scriptPath = null;
+        String recordPath = null;
+        String replayPath = null;
+        boolean parallel = false;
+        boolean alphaHitboxes = false;
+        boolean pixelPerfect = false;
+        boolean swept = true;
+        String archetypesPath = Archetypes.DEFAULT_PATH;
+        int rewindSeconds = 0;
+        int rewindMegabytes = 64;
+        String rewindFilePath = null;
+        String deathDumpDirectory = null;
+        String restorePath = null;
+        int restoreBack = 0;
+        String spriteCachePath = SpriteLoader.DEFAULT_CACHE_PATH;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--ticks")) {
+                ticks = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--tick-rate")) {
+                tickRate = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--width")) {
+                width = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--height")) {
+                height = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--script")) {
+                scriptPath = args[++i];
+            } else if (arg.equals("--record")) {
+                recordPath = args[++i];
+            } else if (arg.equals("--replay")) {
+                replayPath = args[++i];
+            } else if (arg.equals("--parallel")) {
+                parallel = true;
+            } else if (arg.equals("--alpha-hitboxes")) {
+                alphaHitboxes = true;
+            } else if (arg.equals("--pixel-perfect")) {
+                pixelPerfect = true;
+            } else if (arg.equals("--no-swept")) {
+                swept = false;
+            } else if (arg.equals("--archetypes")) {
+                archetypesPath = args[++i];
+            } else if (arg.equals("--rewind-seconds")) {
+                rewindSeconds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--rewind-megabytes")) {
+                rewindMegabytes = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--rewind-file")) {
+                rewindFilePath = args[++i];
+            } else if (arg.equals("--dump-on-death")) {
+                deathDumpDirectory = args[++i];
+            } else if (arg.equals("--restore")) {
+                restorePath = args[++i];
+            } else if (arg.equals("--restore-back")) {
+                restoreBack = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--sprite-cache")) {
+                spriteCachePath = args[++i];
+            } else if (arg.equals("--no-sprite-cache")) {
+                spriteCachePath = null;
+            } else {
+                System.err.println("unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        InputReplay replay = null;
+        if (replayPath != null) {
+            replay = new InputReplay(replayPath);
+            seed = replay.seed;
+            tickRate = replay.tickRate;
+            width = replay.screenWidth;
+            height = replay.screenHeight;
+            ticks = Integer.MAX_VALUE;
+        }
+
+        GameAssets assets = new GameAssets(Archetypes.load(archetypesPath), spriteCachePath);
+        System.out.println("loaded " + assets.spriteLoader.getSummary());
+        Game game = new Game(assets);
+        game.random.setSeed(seed);
+        game.logEvents = false;
+        game.screenWidth = width;
+        game.screenHeight = height;
+        game.useParallelUpdate = parallel;
+        game.useParallelCollision = parallel;
+        if (alphaHitboxes) {
+            game.hitboxes.trimToAlpha();
+        }
+        game.usePixelPerfectCollision = pixelPerfect;
+        game.useSweptCollision = swept;
+        // so long runs can be watched with VisualVM etc. (see TickProfiler)
+        game.profiler.registerWithJmx("jspace:type=TickProfiler");
+        if (deathDumpDirectory != null && rewindSeconds == 0) {
+            rewindSeconds = 5;
+        }
+        if (rewindSeconds > 0) {
+            game.rewindBuffer = new RewindBuffer(rewindSeconds * tickRate, rewindMegabytes, rewindFilePath);
+            game.rewindBuffer.setDeathDumpDirectory(deathDumpDirectory);
+        }
+        if (restorePath != null) {
+            long restoredTick = RewindBuffer.restoreFromDump(restorePath, restoreBack, game);
+            System.out.println("restored the world from after tick " + restoredTick + " in " + restorePath);
+        }
+        if (recordPath != null) {
+            game.inputRecorder = new InputRecorder(recordPath, seed, tickRate, width, height);
+        }
+
+        ArrayList<ScriptLine> script = scriptPath != null ? loadScript(scriptPath) : null;
+        int nextScriptLine = 0;
+        double dt = 1.0 / tickRate;
+
+        long startTime = System.nanoTime();
+        long startAllocatedBytes = getAllocatedBytes();
+        int maxEnemies = 0;
+        int maxProjectiles = 0;
+        int tick = 0;
+        for (; tick < ticks; tick++) {
+            if (replay != null) {
+                if (replay.isFinished()) {
+                    break;
+                }
+                game.input = replay.nextInput();
+            } else if (script != null) {
+                while (nextScriptLine < script.size() && script.get(nextScriptLine).tick <= tick) {
+                    game.input = script.get(nextScriptLine).input;
+                    nextScriptLine++;
+                }
+            } else if (tick % SWEEP_TICKS == 0) {
+                game.input = Input.FIRE | ((tick / SWEEP_TICKS) % 2 == 0 ? Input.LEFT : Input.RIGHT);
+            }
+
+            game.update(dt);
+
+            if (replay != null) {
+                replay.checkEndOfTick(game);
+            }
+            maxEnemies = Math.max(maxEnemies, game.getEnemyCount());
+            maxProjectiles = Math.max(maxProjectiles, game.getProjectileCount());
+        }
+        ticks = tick;
+        long elapsedNanoseconds = System.nanoTime() - startTime;
+        long allocatedBytes = getAllocatedBytes() - startAllocatedBytes;
+
+        double seconds = elapsedNanoseconds / 1e9;
+        System.out.println(String.format("ticks:              %d (%.1f simulated seconds)", ticks, ticks * dt));
+        System.out.println(String.format("wall time:          %.3f s", seconds));
+        System.out.println(String.format("ticks/sec:          %.0f", ticks / seconds));
+        if (startAllocatedBytes >= 0) {
+            System.out.println(String.format("allocated/tick:     %.1f bytes", allocatedBytes / (double) ticks));
+        }
+        System.out.println(String.format("enemies:            %d at end, %d max", game.getEnemyCount(), maxEnemies));
+        System.out.println(String.format("projectiles:        %d at end, %d max", game.getProjectileCount(), maxProjectiles));
+        System.out.println(String.format("final checksum:     %016x", game.getChecksum()));
+        if (replay != null) {
+            replay.close();
+            if (replay.firstMismatchTick == -1) {
+                System.out.println(String.format("replay:             matched the recording (%d checksums compared)", replay.checksumsCompared));
+            } else {
+                System.out.println(String.format("replay:             DIFFERENT from the recording by tick %d", replay.firstMismatchTick));
+            }
+        }
+        if (game.inputRecorder != null) {
+            game.inputRecorder.close();
+            System.out.println("recorded to " + recordPath);
+        }
+        System.out.println();
+        System.out.println(game.getPoolStats());
+        System.out.println();
+        System.out.print(game.profiler.getReport());
+
+        // so scripts can tell that a replay didn't match
+        if (replay != null && replay.firstMismatchTick != -1) {
+            System.exit(1);
+        }
+    }
+
+    // how many bytes this thread has allocated so far, or -1 if the JVM can't tell us
+    static long getAllocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static class ScriptLine {
+        int tick;
+        int input;
+    }
+
+    private static ArrayList<ScriptLine> loadScript(String path) throws IOException {
+        ArrayList<ScriptLine> script = new ArrayList<ScriptLine>();
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] parts = line.split("\\s+");
+                ScriptLine scriptLine = new ScriptLine();
+                scriptLine.tick = Integer.parseInt(parts[0]);
+                for (int i = 1; i < parts.length; i++) {
+                    scriptLine.input |= Input.fromKeyName(parts[i]);
+                }
+                script.add(scriptLine);
+            }
+        } finally {
+            reader.close();
+        }
+        return script;
+    }
+}
@@ -0,0 +1,224 @@
+package jspace;
+
+import java.awt.image.BufferedImage;
+
+/*
+ * The shape of each type of game object, for collision detection. Everything is worked out once when
+ * the images are loaded and kept in arrays indexed by type id (see Archetypes), so checking whether
+ * two objects overlap is just a few array lookups and comparisons.
+ *
+ * Each type has a 'hitbox': a rectangle given by how far its edges are from the object's center. It
+ * starts off as the whole image, unless the archetype gives one. trimToAlpha() shrinks the rest to
+ * just the part of the image which isn't see-through, and setHitbox() can set one by hand.
+ *
+ * Fast things can move further than their own size in one tick, and skip straight past something
+ * without ever overlapping it at the end of a tick. sweptOverlapTime() checks the whole way the
+ * hitboxes moved during the tick instead, so that can't happen.
+ *
+ * For even more accuracy, pixelsOverlap() checks whether any solid pixels of the two images actually
+ * touch, using a 'mask' of each image made at load time, with one bit per pixel (set if the pixel is
+ * solid). 64 pixels get checked at once by ANDing longs together.
+ */
+public class Hitboxes {
+    // pixels at least this opaque (out of 255) count as solid
+    private static final int SOLID_ALPHA = 128;
+
+    // for each type, where the edges of its hitbox are compared to the center of the object. left and
+    // top are usually negative
+    public final double[] left;
+    public final double[] top;
+    public final double[] right;
+    public final double[] bottom;
+    // whether each hitbox was set by hand (or by the archetype), so trimToAlpha() should leave it alone
+    private final boolean[] setByHand;
+
+    // for each type, the size of its image, and which of its pixels are solid. the mask has wordsPerRow
+    // longs for each row of pixels, and bit i of a long is the pixel i pixels right of where it starts
+    private final int[] imageWidth;
+    private final int[] imageHeight;
+    private final int[] wordsPerRow;
+    private final long[][] masks;
+
+    // images has the image for each type id
+    Hitboxes(Archetypes archetypes, BufferedImage[] images) {
+        int typeCount = images.length;
+        this.left = new double[typeCount];
+        this.top = new double[typeCount];
+        this.right = new double[typeCount];
+        this.bottom = new double[typeCount];
+        this.setByHand = new boolean[typeCount];
+        this.imageWidth = new int[typeCount];
+        this.imageHeight = new int[typeCount];
+        this.wordsPerRow = new int[typeCount];
+        this.masks = new long[typeCount][];
+        for (int t = 0; t < typeCount; t++) {
+            BufferedImage image = images[t];
+            int width = image.getWidth();
+            int height = image.getHeight();
+            this.imageWidth[t] = width;
+            this.imageHeight[t] = height;
+            if (archetypes.hasHitbox[t]) {
+                this.setHitbox(t, archetypes.hitboxLeft[t], archetypes.hitboxTop[t], archetypes.hitboxRight[t], archetypes.hitboxBottom[t]);
+            } else {
+                this.setEdges(t, -width / 2.0, -height / 2.0, width / 2.0, height / 2.0);
+            }
+
+            int wordsPerRow = (width + 63) / 64;
+            long[] mask = new long[wordsPerRow * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int alpha = image.getRGB(x, y) >>> 24;
+                    if (alpha >= SOLID_ALPHA) {
+                        mask[y * wordsPerRow + x / 64] |= 1L << (x % 64);
+                    }
+                }
+            }
+            this.wordsPerRow[t] = wordsPerRow;
+            this.masks[t] = mask;
+        }
+    }
+
+    public void setHitbox(int type, double left, double top, double right, double bottom) {
+        this.setEdges(type, left, top, right, bottom);
+        this.setByHand[type] = true;
+    }
+
+    // shrink every hitbox (apart from ones set by hand) down to the smallest rectangle which still holds
+    // all of the image's solid pixels
+    public void trimToAlpha() {
+        for (int t = 0; t < this.masks.length; t++) {
+            if (this.setByHand[t]) {
+                continue;
+            }
+            int minX = Integer.MAX_VALUE;
+            int minY = Integer.MAX_VALUE;
+            int maxX = -1;
+            int maxY = -1;
+            for (int y = 0; y < this.imageHeight[t]; y++) {
+                for (int x = 0; x < this.imageWidth[t]; x++) {
+                    if (this.isSolid(t, x, y)) {
+                        minX = Math.min(minX, x);
+                        minY = Math.min(minY, y);
+                        maxX = Math.max(maxX, x);
+                        maxY = Math.max(maxY, y);
+                    }
+                }
+            }
+            if (maxX == -1) {
+                // nothing solid at all, so leave it as it is rather than making it nothing
+                continue;
+            }
+            double centerX = this.imageWidth[t] / 2.0;
+            double centerY = this.imageHeight[t] / 2.0;
+            this.setEdges(t, minX - centerX, minY - centerY, maxX + 1 - centerX, maxY + 1 - centerY);
+        }
+    }
+
+    private void setEdges(int type, double left, double top, double right, double bottom) {
+        this.left[type] = left;
+        this.top[type] = top;
+        this.right[type] = right;
+        this.bottom[type] = bottom;
+    }
+
+    // whether the hitboxes of two objects overlap, given their type ids and positions
+    public boolean overlaps(int aType, double ax, double ay, int bType, double bx, double by) {
+        return !(
+            ax + this.left[aType] > bx + this.right[bType] ||
+            bx + this.left[bType] > ax + this.right[aType] ||
+            ay + this.top[aType] > by + this.bottom[bType] ||
+            by + this.top[bType] > ay + this.bottom[aType]
+        );
+    }
+
+    // the fraction of the way through a tick (0 to 1) at which the hitboxes of two moving objects first
+    // touch, or -1 if they don't touch at all during the tick. a moves in a straight line from ax0,ay0 to
+    // ax1,ay1 and b from bx0,by0 to bx1,by1, both at a steady speed.
+    //
+    // this works by pretending b stays still and a does all the moving (the difference between their
+    // movements). then for each of x and y, we work out the range of times a overlaps b on that axis
+    // alone. the boxes touch when they overlap on both axes at once, ie. where the two ranges overlap
+    public double sweptOverlapTime(int aType, double ax0, double ay0, double ax1, double ay1, int bType, double bx0, double by0, double bx1, double by1) {
+        double startX = ax0 - bx0;
+        double startY = ay0 - by0;
+        double moveX = (ax1 - ax0) - (bx1 - bx0);
+        double moveY = (ay1 - ay0) - (by1 - by0);
+        // a overlaps b on the x axis while startX + moveX * t is between these
+        double minX = this.left[bType] - this.right[aType];
+        double maxX = this.right[bType] - this.left[aType];
+        double minY = this.top[bType] - this.bottom[aType];
+        double maxY = this.bottom[bType] - this.top[aType];
+
+        double enter = 0;
+        double exit = 1;
+        if (moveX == 0) {
+            if (startX < minX || startX > maxX) {
+                return -1;
+            }
+        } else {
+            double t1 = (minX - startX) / moveX;
+            double t2 = (maxX - startX) / moveX;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+        if (moveY == 0) {
+            if (startY < minY || startY > maxY) {
+                return -1;
+            }
+        } else {
+            double t1 = (minY - startY) / moveY;
+            double t2 = (maxY - startY) / moveY;
+            enter = Math.max(enter, Math.min(t1, t2));
+            exit = Math.min(exit, Math.max(t1, t2));
+        }
+        return enter <= exit ? enter : -1;
+    }
+
+    // whether any solid pixels of two objects' images are on top of each other. the images go in exactly
+    // the same pixels as when they're drawn (see SpriteAtlas.getCorner)
+    public boolean pixelsOverlap(int aType, double ax, double ay, int bType, double bx, double by) {
+        int aLeft = SpriteAtlas.getCorner(ax, this.imageWidth[aType]);
+        int aTop = SpriteAtlas.getCorner(ay, this.imageHeight[aType]);
+        int bLeft = SpriteAtlas.getCorner(bx, this.imageWidth[bType]);
+        int bTop = SpriteAtlas.getCorner(by, this.imageHeight[bType]);
+
+        // the rectangle where the two images overlap
+        int x1 = Math.max(aLeft, bLeft);
+        int x2 = Math.min(aLeft + this.imageWidth[aType], bLeft + this.imageWidth[bType]);
+        int y1 = Math.max(aTop, bTop);
+        int y2 = Math.min(aTop + this.imageHeight[aType], bTop + this.imageHeight[bType]);
+
+        for (int y = y1; y < y2; y++) {
+            for (int x = x1; x < x2; x += 64) {
+                int count = Math.min(64, x2 - x);
+                long aBits = this.getMaskBits(aType, x - aLeft, y - aTop, count);
+                long bBits = this.getMaskBits(bType, x - bLeft, y - bTop, count);
+                if ((aBits & bBits) != 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // count (up to 64) bits of a type's mask, starting from pixel x,y and going right
+    private long getMaskBits(int type, int x, int y, int count) {
+        long[] mask = this.masks[type];
+        int wordsPerRow = this.wordsPerRow[type];
+        int word = x / 64;
+        int shift = x % 64;
+        int rowStart = y * wordsPerRow;
+        long bits = mask[rowStart + word] >>> shift;
+        if (shift != 0 && word + 1 < wordsPerRow) {
+            bits |= mask[rowStart + word + 1] << (64 - shift);
+        }
+        if (count < 64) {
+            bits &= (1L << count) - 1;
+        }
+        return bits;
+    }
+
+    private boolean isSolid(int type, int x, int y) {
+        return (this.getMaskBits(type, x, y, 1) & 1) != 0;
+    }
+}
@@ -0,0 +1,44 @@
+package jspace;
+
+/*
+ * The player's input for one tick, packed into the bits of an int (a 'bitmask'). Each thing the player
+ * can do has its own bit, so eg. moving up and firing at the same time is UP | FIRE, and you can check
+ * if the player is firing with (input & FIRE) != 0.
+ *
+ * Keeping the input this small means it's cheap to check every tick, and easy to record and replay
+ * (see InputRecorder).
+ */
+public class Input {
+    public static final int UP = 1;
+    public static final int DOWN = 1 << 1;
+    public static final int LEFT = 1 << 2;
+    public static final int RIGHT = 1 << 3;
+    public static final int FIRE = 1 << 4;
+
+    // the input bit with the given name (eg. "FIRE"), or 0 if there isn't one. used for setting up key
+    // bindings (see KeyboardInput)
+    public static int fromName(String name) {
+        switch (name.toUpperCase()) {
+            case "UP": return UP;
+            case "DOWN": return DOWN;
+            case "LEFT": return LEFT;
+            case "RIGHT": return RIGHT;
+            case "FIRE": return FIRE;
+        }
+        return 0;
+    }
+
+    // the input bit for a key name in a Headless script, or 0 if that key doesn't do anything. "␣" works
+    // as well as "SPACE", because that's what KeyEvent.getKeyText gives us for the spacebar
+    public static int fromKeyName(String key) {
+        switch (key) {
+            case "W": return UP;
+            case "S": return DOWN;
+            case "A": return LEFT;
+            case "D": return RIGHT;
+            case "␣": return FIRE;
+            case "SPACE": return FIRE;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,101 @@
+package jspace;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/*
+ * Records everything needed to play a game again exactly the same way: the random seed, and the
+ * player's input on every tick. Given those, the game always does exactly the same thing, so a
+ * recording can be replayed (see InputReplay) to eg. compare how fast two versions of the game run
+ * the exact same game, or check that they both end up in the exact same state.
+ *
+ * The input usually stays the same for many ticks in a row, so instead of writing it out every tick,
+ * we write out each input along with how many ticks in a row it was held for. Every CHECKSUM_INTERVAL
+ * ticks we also write out Game.getChecksum(), so a replay can tell if it has gone differently.
+ *
+ * The file looks like this:
+ *   int MAGIC, int VERSION, long seed, int tickRate, int screenWidth, int screenHeight
+ * followed by any number of records, each starting with a byte saying what kind of record it is:
+ *   RECORD_INPUT: byte input, int numberOfTicks
+ *   RECORD_CHECKSUM: int tick, long checksum
+ *   RECORD_END: int totalTicks
+ */
+public class InputRecorder {
+    static final int MAGIC = 0x4a535052; // "JSPR"
+    // this goes up whenever the file format changes, or the game changes in a way that makes old
+    // recordings play out differently (eg. version 2: EntityStore started moving objects between slots,
+    // version 3: the collision grid stopped rounding hitboxes down, which sometimes missed collisions,
+    // version 4: projectiles started hitting things they passed through during a tick)
+    static final int VERSION = 4;
+    static final byte RECORD_INPUT = 0;
+    static final byte RECORD_CHECKSUM = 1;
+    static final byte RECORD_END = 2;
+    // how often (in ticks) to record a checksum of the game world
+    static final int CHECKSUM_INTERVAL = 60;
+
+    private DataOutputStream out;
+    // the input we're currently counting ticks of, and how many ticks it has been held for
+    private int currentInput = -1;
+    private int currentInputTicks = 0;
+    private int tick = 0;
+
+    // start recording a game which uses this seed, tick rate and screen size
+    InputRecorder(String path, long seed, int tickRate, int screenWidth, int screenHeight) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        this.out.writeInt(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeLong(seed);
+        this.out.writeInt(tickRate);
+        this.out.writeInt(screenWidth);
+        this.out.writeInt(screenHeight);
+    }
+
+    // Game.update calls this at the start of every tick, with the input for that tick
+    public void recordInput(int input) {
+        if (input != this.currentInput) {
+            this.writeCurrentInput();
+            this.currentInput = input;
+        }
+        this.currentInputTicks++;
+    }
+
+    // Game.update calls this at the end of every tick
+    public void recordEndOfTick(Game game) {
+        this.tick++;
+        if (this.tick % CHECKSUM_INTERVAL == 0) {
+            this.writeCurrentInput();
+            try {
+                this.out.writeByte(RECORD_CHECKSUM);
+                this.out.writeInt(this.tick);
+                this.out.writeLong(game.getChecksum());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    // finish writing the recording. nothing can be recorded after this
+    public void close() throws IOException {
+        this.writeCurrentInput();
+        this.out.writeByte(RECORD_END);
+        this.out.writeInt(this.tick);
+        this.out.close();
+    }
+
+    private void writeCurrentInput() {
+        if (this.currentInputTicks == 0) {
+            return;
+        }
+        try {
+            this.out.writeByte(RECORD_INPUT);
+            this.out.writeByte(this.currentInput);
+            this.out.writeInt(this.currentInputTicks);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.currentInputTicks = 0;
+    }
+}
@@ -0,0 +1,104 @@
+package jspace;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/*
+ * Reads back a recording made by InputRecorder (see there for the file format), so the recorded game
+ * can be played again exactly. Call nextInput() before each tick to get the input for that tick, and
+ * checkEndOfTick() after each tick to compare the game world with what it was when it was recorded.
+ */
+public class InputReplay {
+    // the settings the game was recorded with
+    public final long seed;
+    public final int tickRate;
+    public final int screenWidth;
+    public final int screenHeight;
+
+    // the first tick where the game world didn't match the recording, or -1 if it has always matched
+    // (so far). checksums are only recorded every InputRecorder.CHECKSUM_INTERVAL ticks, so the
+    // replay actually went differently somewhere in the ticks before this one
+    public int firstMismatchTick = -1;
+    // how many checksums have been compared
+    public int checksumsCompared = 0;
+
+    private DataInputStream in;
+    private int tick = 0;
+    private int currentInput = 0;
+    private int currentInputTicksLeft = 0;
+    // the next checksum in the recording, and the tick it's for (or -1 if there are no more)
+    private int nextChecksumTick = -1;
+    private long nextChecksum;
+    private boolean finished = false;
+
+    InputReplay(String path) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        if (this.in.readInt() != InputRecorder.MAGIC) {
+            throw new IOException(path + " is not a recording");
+        }
+        int version = this.in.readInt();
+        if (version != InputRecorder.VERSION) {
+            throw new IOException(path + " is a version " + version + " recording, but only version " + InputRecorder.VERSION + " can be replayed");
+        }
+        this.seed = this.in.readLong();
+        this.tickRate = this.in.readInt();
+        this.screenWidth = this.in.readInt();
+        this.screenHeight = this.in.readInt();
+        this.readAhead();
+    }
+
+    // whether every tick in the recording has been replayed
+    public boolean isFinished() {
+        return this.finished && this.currentInputTicksLeft == 0;
+    }
+
+    // the input for the next tick
+    public int nextInput() throws IOException {
+        if (this.currentInputTicksLeft == 0) {
+            throw new EOFException("the recording has no more ticks in it");
+        }
+        this.currentInputTicksLeft--;
+        this.readAhead();
+        return this.currentInput;
+    }
+
+    // call after each tick, to check the game world is still the same as when it was recorded
+    public void checkEndOfTick(Game game) throws IOException {
+        this.tick++;
+        if (this.tick == this.nextChecksumTick) {
+            this.checksumsCompared++;
+            if (game.getChecksum() != this.nextChecksum && this.firstMismatchTick == -1) {
+                this.firstMismatchTick = this.tick;
+            }
+            this.nextChecksumTick = -1;
+            this.readAhead();
+        }
+    }
+
+    public void close() throws IOException {
+        this.in.close();
+    }
+
+    // if we've used up the input we read last, read the next record, so we always know what's coming up
+    // next: more input, a checksum to compare at the end of the current tick, or the end of the recording
+    private void readAhead() throws IOException {
+        while (!this.finished && this.currentInputTicksLeft == 0 && this.nextChecksumTick == -1) {
+            byte record = this.in.readByte();
+            if (record == InputRecorder.RECORD_INPUT) {
+                this.currentInput = this.in.readByte();
+                this.currentInputTicksLeft = this.in.readInt();
+            } else if (record == InputRecorder.RECORD_CHECKSUM) {
+                this.nextChecksumTick = this.in.readInt();
+                this.nextChecksum = this.in.readLong();
+            } else if (record == InputRecorder.RECORD_END) {
+                this.in.readInt();
+                this.finished = true;
+            } else {
+                throw new IOException("unknown record type " + record);
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package jspace;
+
+import java.awt.event.KeyEvent;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Turns keys being pressed and released into the game's Input bits. Which key does what is set up
+ * with 'bindings' (see bind), so more than one key can do the same thing (eg. W and the up arrow),
+ * and they can be changed with -Djspace.keys=... (see Main).
+ *
+ * Key presses arrive on the AWT event thread, but the game reads the input on its own thread, so which
+ * keys are held down is kept in an AtomicLong, with one bit per binding. Both threads can use it at once
+ * without locking, and working out the input for a tick is just a few bit operations, instead of
+ * looking up strings in a set.
+ */
+public class KeyboardInput {
+    // a long has 64 bits, so that's how many bindings there can be
+    private static final int MAX_BINDINGS = 64;
+    // key codes are looked up in an array, so keys with really big codes (there are a few odd ones)
+    // can't be bound
+    private static final int MAX_KEY_CODE = 1024;
+
+    // for each key code, the bit of the binding it's bound to, or 0 if it isn't bound to anything
+    private final long[] bindingBitOfKeyCode = new long[MAX_KEY_CODE];
+    // for each binding, the Input bit it sets
+    private final int[] inputOfBinding = new int[MAX_BINDINGS];
+    private int bindingCount = 0;
+
+    // one bit per binding which is held down right now
+    private final AtomicLong held = new AtomicLong(0);
+    // one bit per binding which has been pressed since the last takeSnapshot(). this means a key which
+    // gets pressed and let go again between two ticks still counts for a tick, instead of being missed
+    private final AtomicLong pressedSinceSnapshot = new AtomicLong(0);
+
+    // the keys the game has always used, plus the arrow keys
+    public static KeyboardInput withDefaultBindings() {
+        KeyboardInput keyboardInput = new KeyboardInput();
+        keyboardInput.bind(KeyEvent.VK_W, Input.UP);
+        keyboardInput.bind(KeyEvent.VK_S, Input.DOWN);
+        keyboardInput.bind(KeyEvent.VK_A, Input.LEFT);
+        keyboardInput.bind(KeyEvent.VK_D, Input.RIGHT);
+        keyboardInput.bind(KeyEvent.VK_SPACE, Input.FIRE);
+        keyboardInput.bind(KeyEvent.VK_UP, Input.UP);
+        keyboardInput.bind(KeyEvent.VK_DOWN, Input.DOWN);
+        keyboardInput.bind(KeyEvent.VK_LEFT, Input.LEFT);
+        keyboardInput.bind(KeyEvent.VK_RIGHT, Input.RIGHT);
+        return keyboardInput;
+    }
+
+    // bindings from a string like "W=UP,S=DOWN,A=LEFT,D=RIGHT,SPACE=FIRE,CONTROL=FIRE". the key names
+    // are the names of the KeyEvent.VK_ constants without the VK_, and the inputs are the names of the
+    // Input bits (see Input.fromName)
+    public static KeyboardInput fromBindingsString(String bindings) {
+        KeyboardInput keyboardInput = new KeyboardInput();
+        for (String binding : bindings.split(",")) {
+            String[] parts = binding.trim().split("=");
+            if (parts.length != 2) {
+                throw new RuntimeException("key bindings should look like KEY=INPUT, not " + binding);
+            }
+            int input = Input.fromName(parts[1].trim());
+            if (input == 0) {
+                throw new RuntimeException("unknown input in key binding: " + binding);
+            }
+            keyboardInput.bind(keyCodeFromName(parts[0].trim()), input);
+        }
+        return keyboardInput;
+    }
+
+    // make the given key (a KeyEvent.VK_ code) set the given Input bit while it's held down. binding a
+    // key which is already bound makes it do both, eg. "SPACE=FIRE,SPACE=UP" fires and moves up
+    public void bind(int keyCode, int input) {
+        if (keyCode < 0 || keyCode >= MAX_KEY_CODE) {
+            throw new RuntimeException("can't bind key code " + keyCode);
+        }
+        long existingBit = this.bindingBitOfKeyCode[keyCode];
+        if (existingBit != 0) {
+            // add to the key's binding, instead of giving it a new one and leaving the old one's bit
+            // used up for nothing
+            this.inputOfBinding[Long.numberOfTrailingZeros(existingBit)] |= input;
+            return;
+        }
+        if (this.bindingCount == MAX_BINDINGS) {
+            throw new RuntimeException("there can't be more than " + MAX_BINDINGS + " key bindings");
+        }
+        int binding = this.bindingCount++;
+        this.inputOfBinding[binding] = input;
+        this.bindingBitOfKeyCode[keyCode] = 1L << binding;
+    }
+
+    // called from the AWT event thread when a key goes down
+    public void keyPressed(int keyCode) {
+        long bit = this.getBindingBit(keyCode);
+        if (bit != 0) {
+            setBits(this.held, bit);
+            setBits(this.pressedSinceSnapshot, bit);
+        }
+    }
+
+    // called from the AWT event thread when a key comes back up
+    public void keyReleased(int keyCode) {
+        long bit = this.getBindingBit(keyCode);
+        if (bit != 0) {
+            long old;
+            do {
+                old = this.held.get();
+            } while (!this.held.compareAndSet(old, old & ~bit));
+        }
+    }
+
+    // let go of everything, eg. when the window loses focus and we stop hearing about keys coming up
+    public void releaseAll() {
+        this.held.set(0);
+    }
+
+    // the game's input for the next tick: everything held down now, plus anything which was pressed
+    // since the last time this was called. the game calls this once per tick, so the input doesn't change
+    // part way through a tick
+    public int takeSnapshot() {
+        long bindings = this.held.get() | this.pressedSinceSnapshot.getAndSet(0);
+        int input = 0;
+        while (bindings != 0) {
+            int binding = Long.numberOfTrailingZeros(bindings);
+            input |= this.inputOfBinding[binding];
+            // clear the lowest bit, which is the one we just looked at
+            bindings &= bindings - 1;
+        }
+        return input;
+    }
+
+    private long getBindingBit(int keyCode) {
+        if (keyCode < 0 || keyCode >= MAX_KEY_CODE) {
+            return 0;
+        }
+        return this.bindingBitOfKeyCode[keyCode];
+    }
+
+    private static void setBits(AtomicLong bits, long bit) {
+        long old;
+        do {
+            old = bits.get();
+        } while (!bits.compareAndSet(old, old | bit));
+    }
+
+    // the KeyEvent.VK_ code for a key name, eg. "SPACE" for KeyEvent.VK_SPACE
+    private static int keyCodeFromName(String name) {
+        try {
+            return KeyEvent.class.getField("VK_" + name.toUpperCase()).getInt(null);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("unknown key in key binding: " + name, e);
+        }
+    }
+}
@@ -2,139 +2,471 @@ package jspace;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferStrategy;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.HashSet;
-import java.util.concurrent.locks.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class Main extends JFrame {
+    GameAssets assets;
     Game game;
-    JPanel viewport;
+    Viewport viewport;
     KeyboardEventListener keyListener;
-    HashSet<String> keysDown;
+    KeyboardInput keyboardInput;
+    // only set when playing on a server (see CONNECT_TO)
+    NetClient netClient;
+    // how many frames were drawn in the last second. only used by the drawing thread
     int fps = 0;
-    private Lock redrawLock = new ReentrantLock();
+    // whether to show how long each part of the game is taking on screen. press F3 to toggle it
+    volatile boolean showProfilerOverlay = false;
+    // set by pressing F4 when rewinding is turned on (see REWIND_SECONDS), and picked up by the game loop
+    volatile boolean rewindRequested = false;
+    // set when the JVM is shutting down while recording, to ask the game loop to stop and finish the
+    // recording (see startRecording). the game loop counts gameLoopStopped down once it has
+    volatile boolean stopRequested = false;
+    final CountDownLatch gameLoopStopped = new CountDownLatch(1);
 
     static final int NANOSECONDS_IN_1SEC = 1000000000;
-    static final double NANOSECONDS_IN_1_60TH_OF_A_SEC = NANOSECONDS_IN_1SEC / 60;
+    // how many times a second the game world gets updated. can be changed with -Djspace.tickRate=...
+    static final int TICK_RATE = Integer.getInteger("jspace.tickRate", 60);
+    // how many times a second we try to draw the screen. can be changed with -Djspace.frameRate=...
+    static final int FRAME_RATE = Integer.getInteger("jspace.frameRate", 60);
+    // if the computer is too slow to keep up, the most updates we'll run to catch up before drawing
+    // a frame. without a limit, a slow update means more updates next time, which are slow too, and
+    // so on until the game grinds to a halt (the 'spiral of death')
+    static final int MAX_CATCH_UP_TICKS = 5;
+    // only clear the parts of the screen which were drawn on, instead of the whole thing every frame
+    // (see DirtyRegions). turn it on with -Djspace.dirtyRegions=true
+    static final boolean USE_DIRTY_REGIONS = Boolean.getBoolean("jspace.dirtyRegions");
+    // draw the game with SoftwareRenderer instead of Java2D, which can be quicker with lots on the screen
+    // and no graphics card. turn it on with -Djspace.softwareRenderer=true
+    static final boolean USE_SOFTWARE_RENDERER = Boolean.getBoolean("jspace.softwareRenderer");
+    // print out things like enemies spawning and the player dying. turn it on with -Djspace.logEvents=true
+    static final boolean LOG_EVENTS = Boolean.getBoolean("jspace.logEvents");
+    // update the enemies and projectiles, and look for collisions, on several threads (see
+    // Game.useParallelUpdate and Game.useParallelCollision). turn it on with -Djspace.parallelUpdate=true
+    static final boolean USE_PARALLEL_UPDATE = Boolean.getBoolean("jspace.parallelUpdate");
+    // make collisions more accurate: -Djspace.alphaHitboxes=true shrinks each hitbox to the solid part
+    // of its image, and -Djspace.pixelPerfect=true only counts solid pixels overlapping (see Hitboxes)
+    static final boolean USE_ALPHA_HITBOXES = Boolean.getBoolean("jspace.alphaHitboxes");
+    static final boolean USE_PIXEL_PERFECT_COLLISION = Boolean.getBoolean("jspace.pixelPerfect");
+    // projectiles hit anything they passed through during a tick, not just what they end up touching
+    // (see Game.useSweptCollision). turn it off with -Djspace.sweptCollision=false
+    static final boolean USE_SWEPT_COLLISION = !"false".equals(System.getProperty("jspace.sweptCollision"));
+    // where to load the types of enemies and projectiles from (see Archetypes). change it with
+    // -Djspace.archetypes=FILE
+    static final String ARCHETYPES_PATH = System.getProperty("jspace.archetypes", Archetypes.DEFAULT_PATH);
+    // play on a NetServer instead of running the game here, eg. -Djspace.connect=localhost:7777. the
+    // server has to be using the same archetypes, and the same tick rate
+    static final String CONNECT_TO = System.getProperty("jspace.connect");
+    // keep snapshots of the last few seconds of the game (see RewindBuffer), eg. -Djspace.rewindSeconds=10.
+    // pressing F4 then goes back a second. -Djspace.rewindFile=FILE keeps them in a file mapped into
+    // memory, and -Djspace.dumpOnDeath=DIR saves them into DIR whenever the player dies (see Headless
+    // --restore). rewinding while recording (see jspace.record) spoils the recording
+    static final int REWIND_SECONDS = Integer.getInteger("jspace.rewindSeconds", 0);
+    static final int REWIND_MEGABYTES = Integer.getInteger("jspace.rewindMegabytes", 64);
+    static final String REWIND_FILE = System.getProperty("jspace.rewindFile");
+    static final String DUMP_ON_DEATH = System.getProperty("jspace.dumpOnDeath");
+    // where to cache the decoded sprites so the game starts faster next time (see SpriteLoader), or "none"
+    // to not cache them, eg. -Djspace.spriteCache=none
+    static final String SPRITE_CACHE = System.getProperty("jspace.spriteCache", SpriteLoader.DEFAULT_CACHE_PATH);
 
     Main() {
-        this.game = new Game();
+        // load the images on another thread while the window opens, because they both take a while
+        final Archetypes archetypes = Archetypes.load(ARCHETYPES_PATH);
+        FutureTask<GameAssets> loadingAssets = new FutureTask<GameAssets>(new Callable<GameAssets>() {
+            public GameAssets call() {
+                return new GameAssets(archetypes, SPRITE_CACHE.equals("none") ? null : SPRITE_CACHE);
+            }
+        });
+        new Thread(loadingAssets, "load assets").start();
 
         // set up JFrame window junk
         this.setTitle("Spaaaaace");
         this.setSize(800, 600);
         this.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
-        this.viewport = new Viewport(this);
+        this.viewport = new Viewport();
         this.add(viewport);
         this.setLocationRelativeTo(null); // center window
         this.setVisible(true);
+        // two buffers: we draw the next frame into one while the other is on the screen, then swap them
+        // ('page flipping', if the graphics card can do it, otherwise the new frame gets copied over)
+        this.viewport.createBufferStrategy(2);
 
-        // set up AWT KeyListener to listen for keypresses and make this.keysDown always contain
-        // the set of currently pressed keys so the game can just check that a key is pressed
-        // by doing keysDown.contains(key)
-        this.keysDown = new HashSet<String>();
-        this.keyListener = new KeyboardEventListener(this.keysDown);
+        // set up AWT KeyListener to listen for keypresses and pass them on to this.keyboardInput, which
+        // works out the game's input from them before each update. the keys can be changed with eg.
+        // -Djspace.keys=W=UP,S=DOWN,A=LEFT,D=RIGHT,SPACE=FIRE (see KeyboardInput.fromBindingsString)
+        String keyBindings = System.getProperty("jspace.keys");
+        this.keyboardInput = keyBindings != null
+            ? KeyboardInput.fromBindingsString(keyBindings)
+            : KeyboardInput.withDefaultBindings();
+        this.keyListener = new KeyboardEventListener(this.keyboardInput);
         this.addKeyListener(this.keyListener);
-        this.game.keysDown = this.keysDown;
+        // the viewport gets the keyboard focus, so it needs to listen for keypresses as well
+        this.viewport.addKeyListener(this.keyListener);
+        this.viewport.requestFocus();
+        // we don't hear about keys being let go while the window isn't focused, so let go of them all
+        this.addWindowFocusListener(new WindowAdapter() {
+            public void windowLostFocus(WindowEvent e) {
+                Main.this.keyboardInput.releaseAll();
+            }
+        });
+
+        try {
+            this.assets = loadingAssets.get();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            // eg. an image couldn't be loaded (see SpriteLoader)
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new RuntimeException(e.getCause());
+        }
+        this.game = new Game(this.assets);
+        this.game.logEvents = LOG_EVENTS;
+        if (USE_SOFTWARE_RENDERER) {
+            // it redraws the whole screen every frame anyway
+            this.game.softwareRenderer = new SoftwareRenderer();
+        } else {
+            this.game.useDirtyRegions = USE_DIRTY_REGIONS;
+        }
+        this.game.useParallelUpdate = USE_PARALLEL_UPDATE;
+        this.game.useParallelCollision = USE_PARALLEL_UPDATE;
+        if (USE_ALPHA_HITBOXES) {
+            this.game.hitboxes.trimToAlpha();
+        }
+        this.game.usePixelPerfectCollision = USE_PIXEL_PERFECT_COLLISION;
+        this.game.useSweptCollision = USE_SWEPT_COLLISION;
+        if (REWIND_SECONDS > 0 || DUMP_ON_DEATH != null) {
+            int seconds = REWIND_SECONDS > 0 ? REWIND_SECONDS : 5;
+            try {
+                this.game.rewindBuffer = new RewindBuffer(seconds * TICK_RATE, REWIND_MEGABYTES, REWIND_FILE);
+                this.game.rewindBuffer.setDeathDumpDirectory(DUMP_ON_DEATH);
+            } catch (IOException e) {
+                throw new RuntimeException("couldn't make the rewind buffer", e);
+            }
+        }
+        if (CONNECT_TO != null) {
+            try {
+                this.netClient = new NetClient(this.game, NetClient.parseAddress(CONNECT_TO), SimulatedNetwork.none());
+            } catch (IOException e) {
+                throw new RuntimeException("couldn't connect to " + CONNECT_TO, e);
+            }
+        }
+
+        // pick a random seed, so each game is different, but remember it in case we're recording
+        long seed = new Random().nextLong();
+        this.game.random.setSeed(seed);
+        // if we were started with -Djspace.record=somefile, record the game so it can be replayed with
+        // jspace.Headless --replay somefile
+        String recordingPath = System.getProperty("jspace.record");
+        if (recordingPath != null) {
+            this.startRecording(recordingPath, seed);
+        }
+
+        // let tools like VisualVM see the profiler stats (see TickProfiler)
+        this.game.profiler.registerWithJmx("jspace:type=TickProfiler");
+
+        // drawing happens on its own thread, so that updating the game world never has to wait for it
+        Thread renderThread = new Thread("render") {
+            public void run() {
+                Main.this.runRenderLoop();
+            }
+        };
+        renderThread.setDaemon(true);
+        renderThread.start();
 
         this.runGameMainLoop();
     }
 
     public static void main(String[] args) {
-        Main app = new Main();
-        app.setVisible(true);
+        try {
+            // this only returns once the game loop has stopped, when the JVM is shutting down
+            new Main();
+        } catch (RuntimeException e) {
+            // eg. an image or the archetypes file couldn't be loaded. say so in a window as well, because
+            // if the game was started by double clicking it, there's nowhere to see the stack trace
+            e.printStackTrace();
+            if (!GraphicsEnvironment.isHeadless()) {
+                JOptionPane.showMessageDialog(null, e.getMessage(), "jspace couldn't start", JOptionPane.ERROR_MESSAGE);
+            }
+            System.exit(1);
+        }
     }
 
-    public void draw(Graphics g) {
-        // lock to prevent update and draw from happening at the same time
-        this.redrawLock.lock();
-
-        this.game.graphics = g;
+    private void startRecording(String path, long seed) {
+        // the recording only remembers the size the screen was at the start, so the game stays that size
+        // while recording, even if the window gets resized (see runGameMainLoop)
         this.game.screenWidth = this.viewport.getWidth();
         this.game.screenHeight = this.viewport.getHeight();
+        try {
+            this.game.inputRecorder = new InputRecorder(path, seed, TICK_RATE, this.game.screenWidth, this.game.screenHeight);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }
+        // finish writing the recording when the window is closed. the game thread might be in the middle
+        // of writing to it, so it gets asked to stop and close the recording itself, and we wait for that
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            public void run() {
+                Main.this.stopRequested = true;
+                try {
+                    if (!Main.this.gameLoopStopped.await(5, TimeUnit.SECONDS)) {
+                        System.err.println("the game didn't stop, so the recording isn't finished");
+                    }
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    public void draw(Graphics g) {
+        // there's no need to stop the game world being updated while we draw, because the game only
+        // draws from a snapshot the update thread handed over after it finished updating
+        this.game.graphics = g;
         this.game.draw();
 
-        this.redrawLock.unlock();
+        g.setColor(Color.WHITE);
+        String fpsText = "fps: " + String.valueOf(this.fps);
+        g.drawString(fpsText, 10, 30);
+        this.addTextToDirtyRegions(g, fpsText, 10, 30);
+
+        if (this.showProfilerOverlay) {
+            this.drawProfilerOverlay(g);
+        }
     }
 
+    // the game only knows what it drew itself, so tell it about text we drew over the top, so it gets
+    // cleared away next time
+    private void addTextToDirtyRegions(Graphics g, String text, int x, int y) {
+        if (!this.game.useDirtyRegions) {
+            return;
+        }
+        FontMetrics metrics = g.getFontMetrics();
+        this.game.dirtyRegions.add(x, y - metrics.getAscent(), metrics.stringWidth(text), metrics.getHeight());
+    }
 
-    private void runGameMainLoop() {
-        double lastUpdateTimeInNanoseconds = System.nanoTime();
+    private void drawProfilerOverlay(Graphics g) {
+        TickProfiler profiler = this.game.profiler;
+        // a fixed width font, so the columns line up
+        g.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        int lineHeight = g.getFontMetrics().getHeight();
+        int y = 50;
+        for (String line : profiler.getReportLines()) {
+            this.drawOverlayLine(g, line, y);
+            y += lineHeight;
+        }
+        y += lineHeight;
+        String[] typeNames = profiler.getObjectTypeNames();
+        for (int type = 0; type < typeNames.length; type++) {
+            this.drawOverlayLine(g, String.format("%-18s %10d", typeNames[type], profiler.getLiveObjectCount(type)), y);
+            y += lineHeight;
+        }
+        this.drawOverlayLine(g, String.format("%-18s %10d", "collision pairs", profiler.getCollisionPairsTested()), y);
+        y += lineHeight;
+        this.drawOverlayLine(g, String.format("%-18s %10d", "sprites drawn", profiler.getSpritesDrawn()), y);
+        y += lineHeight;
+        this.drawOverlayLine(g, String.format("%-18s %10d", "sprites culled", profiler.getSpritesCulled()), y);
+    }
+
+    private void drawOverlayLine(Graphics g, String line, int y) {
+        g.drawString(line, 10, y);
+        this.addTextToDirtyRegions(g, line, 10, y);
+    }
+
+    private void runRenderLoop() {
+        long nanosecondsPerFrame = NANOSECONDS_IN_1SEC / FRAME_RATE;
+        BufferStrategy bufferStrategy = this.viewport.getBufferStrategy();
         int frameCounter = 0;
-        double frameStartTime = lastUpdateTimeInNanoseconds;
+        long frameCounterStartTime = System.nanoTime();
+        boolean firstFrameShown = false;
 
         while (true) {
-            try {
-                // sleep for about one millisecond. Note, it's *about* 1ms, not exactly 1ms, because
-                // Thread.sleep isn't guaranteed to wait the exact amount of time you ask for.
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                // Thread.sleep can throw this exception, but shouldn't in our program, so we just have
-                // this try/catch here to stop the Java compiler complaining
-            }
-
-            double currentTimeInNanoseconds = System.nanoTime();
-            // 'delta time' or 'dt' the time since the last time the game world was
-            // updated and the view was rendered. it's useful for working out how much stuff should move
-            // each time game.update is called
-            double deltaTimeInNanoseconds = currentTimeInNanoseconds - lastUpdateTimeInNanoseconds;
-            // has 1/60th of a second passed?
-            if (deltaTimeInNanoseconds > NANOSECONDS_IN_1_60TH_OF_A_SEC) {
-                // make sure draw is not happening while the game world is being updated
-                this.redrawLock.lock();
-
-                // update the game world
-                this.game.time = currentTimeInNanoseconds / NANOSECONDS_IN_1SEC; // nanoseconds to seconds
-                this.game.update(deltaTimeInNanoseconds / NANOSECONDS_IN_1SEC);
-
-                // tell the viewport JPanel to paint, which will in turn cause this.draw to be called,
-                // which then calls this.game.draw (which draws all the game objects on the screen)
-                this.viewport.repaint();
-
-                lastUpdateTimeInNanoseconds = currentTimeInNanoseconds;
-                frameCounter++;
-                this.redrawLock.unlock();
-            }
-
-            if ((currentTimeInNanoseconds - frameStartTime) >= NANOSECONDS_IN_1SEC) {
+            long frameStartTime = System.nanoTime();
+
+            // the buffers are VolatileImages, which live on the graphics card so they're quick to draw
+            // into, but the graphics card can throw them away whenever it likes (eg. if the screen
+            // resolution changes). if that happens while we're drawing, we just draw the frame again
+            boolean contentsLost;
+            do {
+                boolean contentsRestored;
+                do {
+                    Graphics g = bufferStrategy.getDrawGraphics();
+                    try {
+                        this.draw(g);
+                    } finally {
+                        g.dispose();
+                    }
+                    contentsRestored = bufferStrategy.contentsRestored();
+                    if (contentsRestored) {
+                        // we've no idea what's in the buffers now, so they need clearing completely
+                        this.game.dirtyRegions.invalidate();
+                    }
+                } while (contentsRestored);
+                bufferStrategy.show();
+                contentsLost = bufferStrategy.contentsLost();
+                if (contentsLost) {
+                    this.game.dirtyRegions.invalidate();
+                }
+            } while (contentsLost);
+            // make sure the frame actually gets to the screen now (some systems buffer things up)
+            Toolkit.getDefaultToolkit().sync();
+            if (!firstFrameShown) {
+                // how long it took to get going, counting from when the JVM started
+                firstFrameShown = true;
+                long startupMilliseconds = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.out.println("first frame after " + startupMilliseconds + " ms (loaded " + this.assets.spriteLoader.getSummary() + ")");
+            }
+
+            frameCounter++;
+            if ((frameStartTime - frameCounterStartTime) >= NANOSECONDS_IN_1SEC) {
                 this.fps = frameCounter;
-                frameStartTime += NANOSECONDS_IN_1SEC;
+                frameCounterStartTime += NANOSECONDS_IN_1SEC;
                 frameCounter = 0;
             }
+
+            // wait until it's time for the next frame
+            long nanosecondsToWait = nanosecondsPerFrame - (System.nanoTime() - frameStartTime);
+            if (nanosecondsToWait > 0) {
+                LockSupport.parkNanos(nanosecondsToWait);
+            }
         }
     }
 
-    class Viewport extends JPanel {
-        Main mainApp;
+    private void runGameMainLoop() {
+        // the game world is always updated in steps of exactly the same length ('fixed timestep'), no
+        // matter how fast or slow the computer is. that way a slow frame can't make things jump a long
+        // way in one go (eg. a projectile skipping right over a ship), and the game plays the same everywhere
+        long nanosecondsPerTick = NANOSECONDS_IN_1SEC / TICK_RATE;
+        double dt = 1.0 / TICK_RATE;
+
+        long lastLoopTimeInNanoseconds = System.nanoTime();
+        // how much time has passed that the game world hasn't been updated for yet
+        long unsimulatedNanoseconds = 0;
+
+        while (true) {
+            if (this.stopRequested) {
+                this.stopGameLoop();
+                return;
+            }
+            long currentTimeInNanoseconds = System.nanoTime();
+            unsimulatedNanoseconds += currentTimeInNanoseconds - lastLoopTimeInNanoseconds;
+            lastLoopTimeInNanoseconds = currentTimeInNanoseconds;
+
+            // the game world is the same size as the viewport, if the window has been laid out yet. when
+            // playing on a server, it's whatever size the server says instead, and when recording it stays
+            // the size it was when the recording started
+            if (this.netClient == null && this.game.inputRecorder == null
+                && this.viewport.getWidth() > 0 && this.viewport.getHeight() > 0) {
+                this.game.screenWidth = this.viewport.getWidth();
+                this.game.screenHeight = this.viewport.getHeight();
+            }
+
+            if (this.rewindRequested) {
+                this.rewindRequested = false;
+                this.rewindOneSecond();
+            }
 
-        Viewport(Main mainApp) {
-            this.mainApp = mainApp;
+            // run as many fixed size updates as fit in the time that has passed
+            int ticksThisLoop = 0;
+            while (unsimulatedNanoseconds >= nanosecondsPerTick && ticksThisLoop < MAX_CATCH_UP_TICKS) {
+                if (this.netClient != null) {
+                    this.tickNetClient(dt);
+                } else {
+                    this.game.input = this.keyboardInput.takeSnapshot();
+                    this.game.update(dt);
+                }
+                unsimulatedNanoseconds -= nanosecondsPerTick;
+                ticksThisLoop++;
+            }
+            if (unsimulatedNanoseconds >= nanosecondsPerTick) {
+                // we're too far behind to catch up, so just let the game run a bit slower instead
+                unsimulatedNanoseconds %= nanosecondsPerTick;
+            }
+
+            // the drawing thread (see runRenderLoop) picks up the new state of the game world by itself,
+            // so there's nothing to do here except wait until it's time for the next update. this lets the
+            // CPU do something else (or nothing) in the meantime, instead of us repeatedly waking up to
+            // check the time. like Thread.sleep it might wake up a little late, but the fixed timestep
+            // takes care of that.
+            long nanosecondsSpentThisLoop = System.nanoTime() - currentTimeInNanoseconds;
+            long nanosecondsToWait = nanosecondsPerTick - unsimulatedNanoseconds - nanosecondsSpentThisLoop;
+            if (nanosecondsToWait > 0) {
+                LockSupport.parkNanos(nanosecondsToWait);
+            }
         }
+    }
 
-        @Override
-        public void paintComponent(Graphics g) {
-            this.mainApp.draw(g);
+    // finish the recording, if there is one, now nothing else is going to be written to it
+    private void stopGameLoop() {
+        if (this.game.inputRecorder != null) {
+            try {
+                this.game.inputRecorder.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        this.gameLoopStopped.countDown();
+    }
 
-            g.setColor(Color.WHITE);
-            g.drawString("fps: " + String.valueOf(this.mainApp.fps), 10, 30);
+    // put the game back how it was a second ago, or as far back as the rewind buffer goes
+    void rewindOneSecond() {
+        RewindBuffer rewindBuffer = this.game.rewindBuffer;
+        if (rewindBuffer == null || rewindBuffer.size() == 0) {
+            return;
+        }
+        rewindBuffer.rewind(this.game, Math.min(TICK_RATE, rewindBuffer.size() - 1));
+        this.game.publishRenderSnapshot(1.0 / TICK_RATE);
+    }
+
+    // send the server this tick's input, and show whatever it's sent back
+    void tickNetClient(double dt) {
+        try {
+            this.netClient.tick(this.keyboardInput.takeSnapshot(), dt);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        this.game.publishRenderSnapshot(this.netClient, dt);
+    }
+
+    // the area of the window the game gets drawn in. it's a Canvas rather than a JPanel so that we can
+    // draw into it whenever we like with a BufferStrategy (see runRenderLoop), instead of asking Swing
+    // to repaint it and waiting for Swing to get around to it
+    class Viewport extends Canvas {
+        Viewport() {
+            // we do all the drawing ourselves
+            this.setIgnoreRepaint(true);
         }
     }
 
     class KeyboardEventListener implements KeyListener {
-        private HashSet<String> keysDown;
-        KeyboardEventListener(HashSet<String> keysDown) {
-            this.keysDown = keysDown;
+        private KeyboardInput keyboardInput;
+        KeyboardEventListener(KeyboardInput keyboardInput) {
+            this.keyboardInput = keyboardInput;
         }
         public void keyPressed(KeyEvent e) {
-            // we add keypresses to the keysDown set so the game can just check that a key is pressed
-            // by doing keysDown.contains(key)
-            this.keysDown.add(KeyEvent.getKeyText(e.getKeyCode()));
+            if (e.getKeyCode() == KeyEvent.VK_F3) {
+                Main.this.showProfilerOverlay = !Main.this.showProfilerOverlay;
+                return;
+            }
+            if (e.getKeyCode() == KeyEvent.VK_F4) {
+                Main.this.rewindRequested = true;
+                return;
+            }
+            this.keyboardInput.keyPressed(e.getKeyCode());
         }
 
         public void keyReleased(KeyEvent e) {
-            // remove them again once they are no longer pressed
-            this.keysDown.remove(KeyEvent.getKeyText(e.getKeyCode()));
+            this.keyboardInput.keyReleased(e.getKeyCode());
         }
 
         public void keyTyped(KeyEvent e) {
@@ -0,0 +1,358 @@
+package jspace;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Runs lots of separate games ('matches') at once in one JVM, eg. for training bots or load testing,
+ * without a window or a thread per match. Every match has its own Game, so its own random numbers,
+ * time and input, and they never affect each other. They all share one GameAssets though, so the images
+ * only get loaded once.
+ *
+ * One thread (the one that calls run()) keeps time. Every tick, it hands all the matches to a
+ * ForkJoinPool in batches of MATCHES_PER_BATCH, and the pool's threads update them, taking batches from
+ * each other when they run out ('work stealing'), so a few slow matches don't hold the others up. Each
+ * match catches up on any ticks it's behind on, like Main's game loop does. With paced set to false the
+ * matches aren't kept to real time at all, and just get ticked as fast as they can go.
+ *
+ * While it runs it keeps track of how many ticks have been done, and how late each match's ticks were
+ * compared to when they should have happened ('lag'). If the pool can't keep up, the lag goes up, and
+ * once a match is more than MAX_CATCH_UP_TICKS behind, the ticks it missed get skipped.
+ *
+ * Usage: java jspace.MatchHost [--matches N] [--seconds N] [--tick-rate N] [--threads N] [--unpaced]
+ *                              [--seed N] [--archetypes FILE]
+ * This runs that many matches with the same bot as Headless (holding fire and sweeping left and right)
+ * and prints how it's doing every second.
+ */
+public class MatchHost {
+    // how many matches each of the pool's tasks updates. big enough that handing out the tasks doesn't
+    // take longer than doing them, small enough that there are plenty for every thread to take
+    static final int MATCHES_PER_BATCH = 16;
+    // the most ticks a match will do in one go to catch up (the same as Main)
+    static final int MAX_CATCH_UP_TICKS = 5;
+
+    // decides the input for each tick of a match. this gets called on the pool's threads, with different
+    // matches on different threads at the same time, so anything it shares between matches has to be
+    // thread safe
+    public interface Controller {
+        int getInput(Match match);
+    }
+
+    public static class Match {
+        public final int id;
+        public final Game game;
+        public final Controller controller;
+        // how many ticks this match has done
+        public long ticks = 0;
+        // how many ticks this match skipped because it was too far behind
+        public long ticksSkipped = 0;
+        // when the next tick should happen (from System.nanoTime)
+        private long nextTickNanoseconds;
+        // how many ticks were done, and the most any of them were late by, in the last update
+        private int ticksThisUpdate;
+        private long lagThisUpdate;
+
+        Match(int id, Game game, Controller controller) {
+            this.id = id;
+            this.game = game;
+            this.controller = controller;
+        }
+    }
+
+    private final GameAssets assets;
+    private final ForkJoinPool pool;
+    private final long nanosecondsPerTick;
+    private final double dt;
+    // whether ticks happen in real time, or as fast as possible
+    public boolean paced = true;
+
+    private final ArrayList<Match> matches = new ArrayList<Match>();
+    // the batches the matches are split into. they're reused every tick, like Game's chunks
+    private final ArrayList<MatchBatch> batches = new ArrayList<MatchBatch>();
+    private int batchCount = 0;
+    private final RunAllBatches runAllBatches = new RunAllBatches();
+    private volatile boolean stopped = false;
+    // when run() should next update the matches, or 0 if it hasn't been called yet
+    private long nextUpdateTime = 0;
+
+    // the stats. these are only changed by the thread in run(), in between updates, so they should only
+    // be read from that thread when run() isn't running
+    private long totalTicks = 0;
+    // how many ticks were late by each amount, where bucket i is up to 2^i microseconds late. this is
+    // only roughly accurate, but it's always the same size however many ticks there are
+    private final long[] lagHistogram = new long[40];
+    private long lagCount = 0;
+    private long maxLagNanoseconds = 0;
+
+    // pool is the threads the matches get updated on. if it's null, the JVM's shared pool
+    // (ForkJoinPool.commonPool()) is used, which has one thread per CPU core
+    MatchHost(GameAssets assets, int tickRate, ForkJoinPool pool) {
+        this.assets = assets;
+        this.pool = pool != null ? pool : ForkJoinPool.commonPool();
+        this.nanosecondsPerTick = 1000000000L / tickRate;
+        this.dt = 1.0 / tickRate;
+    }
+
+    // start a new match with the given seed. this has to be called before run(), or from the same thread
+    public Match addMatch(long seed, Controller controller) {
+        Game game = new Game(this.assets);
+        game.random.setSeed(seed);
+        game.logEvents = false;
+        // nobody's going to draw it
+        game.publishRenderSnapshots = false;
+        // or look at how long each stage took. a profiler is about 45KB, and times every stage of every tick
+        game.profiler = null;
+        Match match = new Match(this.matches.size(), game, controller);
+        match.nextTickNanoseconds = System.nanoTime();
+        this.matches.add(match);
+
+        // one more batch if the last one is full
+        if (this.matches.size() > this.batchCount * MATCHES_PER_BATCH) {
+            if (this.batchCount == this.batches.size()) {
+                this.batches.add(new MatchBatch());
+            }
+            this.batchCount++;
+        }
+        MatchBatch batch = this.batches.get(this.batchCount - 1);
+        batch.start = (this.batchCount - 1) * MATCHES_PER_BATCH;
+        batch.end = this.matches.size();
+        return match;
+    }
+
+    public int getMatchCount() {
+        return this.matches.size();
+    }
+
+    public Match getMatch(int id) {
+        return this.matches.get(id);
+    }
+
+    // update the matches until stop() is called or until the given number of nanoseconds have passed
+    // (if it isn't 0). everything happens on the pool's threads, this thread just keeps time. calling this
+    // again carries on where the last call left off, so it can be run a bit at a time, with the stats
+    // looked at in between
+    public void run(long forNanoseconds) {
+        long startTime = System.nanoTime();
+        if (this.nextUpdateTime == 0) {
+            // the matches might have been added a while ago, so start them all from now
+            for (Match match : this.matches) {
+                match.nextTickNanoseconds = startTime;
+            }
+            this.nextUpdateTime = startTime;
+        }
+        while (!this.stopped && (forNanoseconds == 0 || System.nanoTime() - startTime < forNanoseconds)) {
+            if (this.paced) {
+                long waitNanoseconds = this.nextUpdateTime - System.nanoTime();
+                if (waitNanoseconds > 0) {
+                    LockSupport.parkNanos(waitNanoseconds);
+                    continue;
+                }
+                this.nextUpdateTime += this.nanosecondsPerTick;
+            }
+            this.updateAll();
+        }
+    }
+
+    // make run() return after the update it's doing, for good. this can be called from any thread
+    public void stop() {
+        this.stopped = true;
+    }
+
+    private void updateAll() {
+        if (this.batchCount == 0) {
+            return;
+        }
+        this.runAllBatches.reinitialize();
+        this.pool.invoke(this.runAllBatches);
+        // all the batches have finished now, so we can read what they did
+        for (int i = 0; i < this.matches.size(); i++) {
+            Match match = this.matches.get(i);
+            this.totalTicks += match.ticksThisUpdate;
+            if (match.ticksThisUpdate > 0) {
+                this.recordLag(match.lagThisUpdate);
+            }
+        }
+    }
+
+    // do the ticks one match is due. this runs on one of the pool's threads
+    private void updateMatch(Match match) {
+        Game game = match.game;
+        match.ticksThisUpdate = 0;
+        match.lagThisUpdate = 0;
+        if (!this.paced) {
+            game.input = match.controller.getInput(match);
+            game.update(this.dt);
+            match.ticks++;
+            match.ticksThisUpdate = 1;
+            return;
+        }
+        long now = System.nanoTime();
+        while (match.nextTickNanoseconds <= now && match.ticksThisUpdate < MAX_CATCH_UP_TICKS) {
+            match.lagThisUpdate = Math.max(match.lagThisUpdate, System.nanoTime() - match.nextTickNanoseconds);
+            game.input = match.controller.getInput(match);
+            game.update(this.dt);
+            match.ticks++;
+            match.ticksThisUpdate++;
+            match.nextTickNanoseconds += this.nanosecondsPerTick;
+        }
+        if (match.nextTickNanoseconds <= now) {
+            // too far behind to catch up, so forget about the ticks it missed
+            long skipped = (now - match.nextTickNanoseconds) / this.nanosecondsPerTick + 1;
+            match.nextTickNanoseconds += skipped * this.nanosecondsPerTick;
+            match.ticksSkipped += skipped;
+        }
+    }
+
+    private void recordLag(long lagNanoseconds) {
+        long lagMicroseconds = lagNanoseconds / 1000;
+        int bucket = 64 - Long.numberOfLeadingZeros(lagMicroseconds);
+        this.lagHistogram[Math.min(bucket, this.lagHistogram.length - 1)]++;
+        this.lagCount++;
+        this.maxLagNanoseconds = Math.max(this.maxLagNanoseconds, lagNanoseconds);
+    }
+
+    public long getTotalTicks() {
+        return this.totalTicks;
+    }
+
+    public long getTotalTicksSkipped() {
+        long skipped = 0;
+        for (Match match : this.matches) {
+            skipped += match.ticksSkipped;
+        }
+        return skipped;
+    }
+
+    // roughly how late (in microseconds) the given fraction of updates were at most, eg. 0.99 for the
+    // 99th percentile. it's rounded up to a power of 2, because of how the lag is recorded
+    public long getLagPercentileMicroseconds(double fraction) {
+        long target = (long) Math.ceil(this.lagCount * fraction);
+        long seen = 0;
+        for (int bucket = 0; bucket < this.lagHistogram.length; bucket++) {
+            seen += this.lagHistogram[bucket];
+            if (seen >= target && seen > 0) {
+                return bucket == 0 ? 0 : Math.min(1L << bucket, this.getMaxLagMicroseconds());
+            }
+        }
+        return 0;
+    }
+
+    public long getMaxLagMicroseconds() {
+        return this.maxLagNanoseconds / 1000;
+    }
+
+    // start the lag stats again, eg. so each report only covers the time since the last one
+    public void resetLagStats() {
+        Arrays.fill(this.lagHistogram, 0);
+        this.lagCount = 0;
+        this.maxLagNanoseconds = 0;
+    }
+
+    // updates the matches from start to end. one of these runs on each thread at a time
+    private class MatchBatch extends RecursiveAction {
+        int start;
+        int end;
+
+        protected void compute() {
+            for (int i = this.start; i < this.end; i++) {
+                MatchHost.this.updateMatch(MatchHost.this.matches.get(i));
+            }
+        }
+    }
+
+    // hands all the batches out to the pool's threads and waits for them all to finish (the same as
+    // Game.RunAllChunks)
+    private class RunAllBatches extends RecursiveAction {
+        protected void compute() {
+            ArrayList<MatchBatch> batches = MatchHost.this.batches;
+            int count = MatchHost.this.batchCount;
+            for (int i = count - 1; i > 0; i--) {
+                batches.get(i).reinitialize();
+                batches.get(i).fork();
+            }
+            batches.get(0).reinitialize();
+            batches.get(0).invoke();
+            for (int i = 1; i < count; i++) {
+                batches.get(i).join();
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        // make sure nothing tries to open a window
+        System.setProperty("java.awt.headless", "true");
+
+        int matchCount = 1000;
+        int seconds = 10;
+        int tickRate = 60;
+        int threads = 0;
+        boolean paced = true;
+        long seed = 1;
+        String archetypesPath = Archetypes.DEFAULT_PATH;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--matches")) {
+                matchCount = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--seconds")) {
+                seconds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--tick-rate")) {
+                tickRate = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--unpaced")) {
+                paced = false;
+            } else if (arg.equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--archetypes")) {
+                archetypesPath = args[++i];
+            } else {
+                System.err.println("unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        ForkJoinPool pool = threads > 0 ? new ForkJoinPool(threads) : null;
+        MatchHost host = new MatchHost(new GameAssets(Archetypes.load(archetypesPath)), tickRate, pool);
+        host.paced = paced;
+        // the same bot as Headless, but each match starts its sweep at a different point, so they don't
+        // all do exactly the same thing
+        Controller sweepingBot = new Controller() {
+            public int getInput(Match match) {
+                long sweep = (match.ticks + match.id * 7) / 120;
+                return Input.FIRE | (sweep % 2 == 0 ? Input.LEFT : Input.RIGHT);
+            }
+        };
+        for (int i = 0; i < matchCount; i++) {
+            host.addMatch(seed + i, sweepingBot);
+        }
+        System.out.println(String.format(
+            "%d matches at %d ticks/sec%s on %d threads",
+            matchCount, tickRate, paced ? "" : " (unpaced)", host.pool.getParallelism()
+        ));
+
+        // run for a second at a time, and print how it went in between
+        long lastTicks = 0;
+        long lastTime = System.nanoTime();
+        for (int second = 0; second < seconds; second++) {
+            host.run(1000000000L);
+            long now = System.nanoTime();
+            long ticks = host.getTotalTicks();
+            System.out.println(String.format(
+                "match ticks/sec: %9.0f   lag p50: %6d us   p99: %6d us   max: %6d us   skipped: %d",
+                (ticks - lastTicks) / ((now - lastTime) / 1e9),
+                host.getLagPercentileMicroseconds(0.5),
+                host.getLagPercentileMicroseconds(0.99),
+                host.getMaxLagMicroseconds(),
+                host.getTotalTicksSkipped()
+            ));
+            host.resetLagStats();
+            lastTicks = ticks;
+            lastTime = now;
+        }
+
+        System.out.println(String.format("total match ticks: %d, skipped: %d", host.getTotalTicks(), host.getTotalTicksSkipped()));
+    }
+}
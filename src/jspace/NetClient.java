@@ -0,0 +1,271 @@
+package jspace;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Arrays;
+
+/*
+ * The other end of a NetServer: sends it the player's input every tick, and keeps a copy of the world
+ * from the snapshots it sends back (see NetProtocol). It doesn't run the game itself. The Game it's given
+ * is only used for its archetypes and images, and to move the player.
+ *
+ * Snapshots can arrive late, twice or not at all, so each object remembers the tick of the snapshot it
+ * was last changed by, and anything in an older snapshot than that is ignored. The server keeps sending
+ * everything we haven't acked, so nothing gets missed for good.
+ *
+ * Waiting for the server before moving the player would make the controls feel slow, by however long
+ * the packets take to get there and back. So the client moves the player straight away, the same way the
+ * server will ('prediction'), and remembers the input. When a snapshot arrives, it says where the player
+ * was after the newest input the server has used, so the client starts from there and moves the player
+ * again for each input the server hasn't got to yet. If the server saw the same inputs, that ends up in
+ * exactly the same place. If it didn't (eg. the player got hit, or some input arrived too late), the
+ * player jumps to where the server says, and the jump is added up in the correction stats.
+ */
+public class NetClient {
+    // how many inputs are remembered for prediction. more than this many ticks behind and the player just
+    // goes where the server says
+    static final int INPUT_HISTORY = 64;
+
+    private final Game game;
+    private final DatagramChannel channel;
+    private final SocketAddress serverAddress;
+    private final SimulatedNetwork network;
+
+    // everything but the player, as the server has told us
+    public final NetWorldState world = new NetWorldState();
+    // the tick of the snapshot which last changed each id
+    private int[] tickOfId = new int[256];
+    // where the player is (with prediction), and where it was the tick before, for drawing
+    public final Vector2d playerPosition = new Vector2d(0, 0);
+    public final Vector2d previousPlayerPosition = new Vector2d(0, 0);
+    // the size of the server's screen
+    public int screenWidth;
+    public int screenHeight;
+    // whether our input moves the player, or we're just watching
+    public boolean controlsPlayer = false;
+    // whether any snapshots have arrived yet
+    public boolean joined = false;
+    // the cookie the server sent us, which goes in every packet we send it (see NetProtocol.CHALLENGE),
+    // and whether one has just arrived, so the JOIN with it in gets sent without waiting
+    private int cookie = 0;
+    private boolean challenged = false;
+
+    // the newest snapshot tick we've got, and which of the 32 ticks before it we've got (see NetProtocol)
+    private int newestTick = 0;
+    private int receivedBits = 0;
+    // the inputs we've sent, by sequence number % INPUT_HISTORY, and the newest one's sequence number
+    private final int[] inputs = new int[INPUT_HISTORY];
+    private int inputSequence = 0;
+    private int ticks = 0;
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(NetProtocol.MAX_PACKET_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(NetProtocol.MAX_PACKET_SIZE);
+
+    // how much we've been sent, and how far the player has had to jump when prediction got it wrong
+    public long snapshotsReceived = 0;
+    public long bytesReceived = 0;
+    public long badPackets = 0;
+    public long corrections = 0;
+    public double totalCorrectionDistance = 0;
+    public double maxCorrectionDistance = 0;
+
+    public NetClient(Game game, SocketAddress serverAddress, SimulatedNetwork network) throws IOException {
+        this.game = game;
+        this.serverAddress = serverAddress;
+        this.network = network;
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.bind(new InetSocketAddress(0));
+    }
+
+    // "host:port", eg. "localhost:7777"
+    public static SocketAddress parseAddress(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        if (colon == -1) {
+            return new InetSocketAddress(hostAndPort, NetServer.DEFAULT_PORT);
+        }
+        return new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+
+    public int getLocalPort() throws IOException {
+        return ((InetSocketAddress) this.channel.getLocalAddress()).getPort();
+    }
+
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    // call this once a tick (at the same tick rate as the server), with the player's input for the tick
+    public void tick(int input, double dt) throws IOException {
+        this.network.flush(this.channel);
+        this.receivePackets(dt);
+        this.ticks++;
+        this.previousPlayerPosition.set(this.playerPosition);
+
+        if (!this.joined) {
+            if (this.ticks % NetProtocol.JOIN_RESEND_TICKS == 1 || this.challenged) {
+                this.challenged = false;
+                this.sendBuffer.clear();
+                this.sendBuffer.put(NetProtocol.JOIN);
+                this.sendBuffer.putInt(this.cookie);
+                this.sendBuffer.flip();
+                this.network.send(this.channel, this.sendBuffer, this.serverAddress);
+            }
+            return;
+        }
+
+        this.inputSequence++;
+        this.inputs[this.inputSequence % INPUT_HISTORY] = input;
+        if (this.controlsPlayer) {
+            this.game.movePlayer(this.playerPosition, input, dt);
+        }
+
+        ByteBuffer packet = this.sendBuffer;
+        packet.clear();
+        packet.put(NetProtocol.INPUT);
+        packet.putInt(this.cookie);
+        packet.putInt(this.newestTick);
+        packet.putInt(this.receivedBits);
+        packet.putInt(this.inputSequence);
+        int count = Math.min(NetProtocol.INPUT_REDUNDANCY, this.inputSequence);
+        packet.put((byte) count);
+        for (int i = 0; i < count; i++) {
+            packet.put((byte) this.inputs[(this.inputSequence - i) % INPUT_HISTORY]);
+        }
+        packet.flip();
+        this.network.send(this.channel, packet, this.serverAddress);
+    }
+
+    private void receivePackets(double dt) throws IOException {
+        while (true) {
+            this.receiveBuffer.clear();
+            SocketAddress from = this.channel.receive(this.receiveBuffer);
+            if (from == null) {
+                return;
+            }
+            this.receiveBuffer.flip();
+            if (!from.equals(this.serverAddress)) {
+                this.badPackets++;
+                continue;
+            }
+            this.bytesReceived += this.receiveBuffer.remaining();
+            try {
+                byte packetType = this.receiveBuffer.get();
+                if (packetType == NetProtocol.SNAPSHOT) {
+                    this.readSnapshot(this.receiveBuffer, dt);
+                } else if (packetType == NetProtocol.CHALLENGE) {
+                    this.readChallenge(this.receiveBuffer);
+                } else {
+                    this.badPackets++;
+                }
+            } catch (BufferUnderflowException e) {
+                this.badPackets++;
+            } catch (IllegalArgumentException e) {
+                this.badPackets++;
+            }
+        }
+    }
+
+    // the server wants to know we're really here. this also happens if the server has restarted, and
+    // doesn't know our old cookie any more, in which case the next INPUT gets us back in with the new one
+    private void readChallenge(ByteBuffer packet) {
+        int cookie = packet.getInt();
+        if (cookie == 0) {
+            throw new IllegalArgumentException("bad cookie");
+        }
+        this.cookie = cookie;
+        this.challenged = true;
+    }
+
+    private void readSnapshot(ByteBuffer packet, double dt) {
+        int tick = packet.getInt();
+        int serverInputSequence = packet.getInt();
+        int flags = packet.get();
+        int screenWidth = packet.getShort();
+        int screenHeight = packet.getShort();
+        double playerX = packet.getDouble();
+        double playerY = packet.getDouble();
+        int recordCount = packet.getShort();
+        if (tick <= 0 || recordCount < 0) {
+            throw new IllegalArgumentException("bad snapshot header");
+        }
+
+        int id = -1;
+        for (int i = 0; i < recordCount; i++) {
+            id += NetProtocol.unzigzag(NetProtocol.getVarInt(packet));
+            if (id < 0 || id >= NetWorldState.MAX_IDS) {
+                throw new IllegalArgumentException("bad id " + id);
+            }
+            byte type = packet.get();
+            short x = 0;
+            short y = 0;
+            if (type != NetWorldState.NONE) {
+                if (type < 0 || type >= this.game.archetypes.count) {
+                    throw new IllegalArgumentException("bad type " + type);
+                }
+                x = packet.getShort();
+                y = packet.getShort();
+            }
+            if (id >= this.tickOfId.length) {
+                this.tickOfId = Arrays.copyOf(this.tickOfId, Math.max(id + 1, this.tickOfId.length * 2));
+            }
+            if (tick > this.tickOfId[id]) {
+                this.tickOfId[id] = tick;
+                this.world.set(id, type, x, y);
+            }
+        }
+        this.snapshotsReceived++;
+
+        // remember we've got it, so the server knows (see NetProtocol.INPUT). this is only done once the
+        // whole snapshot has been read, so a broken one doesn't get acked
+        boolean isNewest = tick > this.newestTick;
+        if (isNewest) {
+            int shift = tick - this.newestTick;
+            this.receivedBits = shift > 32 ? 0 : shift == 32 ? 1 << 31 : (this.receivedBits << shift) | (1 << (shift - 1));
+            this.newestTick = tick;
+        } else if (tick < this.newestTick && this.newestTick - tick <= 32) {
+            this.receivedBits |= 1 << (this.newestTick - tick - 1);
+        }
+
+        if (isNewest) {
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+            this.game.screenWidth = screenWidth;
+            this.game.screenHeight = screenHeight;
+            this.controlsPlayer = (flags & NetProtocol.SNAPSHOT_CONTROLS_PLAYER) != 0;
+            this.predict(playerX, playerY, serverInputSequence, dt);
+            if (!this.joined) {
+                this.joined = true;
+                this.previousPlayerPosition.set(this.playerPosition);
+            }
+        }
+    }
+
+    // start from where the server says the player was after the input with the given sequence number,
+    // and move it again for every input since then
+    private void predict(double serverX, double serverY, int serverInputSequence, double dt) {
+        double predictedX = this.playerPosition.x;
+        double predictedY = this.playerPosition.y;
+        this.playerPosition.set(serverX, serverY);
+        if (this.controlsPlayer) {
+            int firstSequence = Math.max(serverInputSequence + 1, this.inputSequence - INPUT_HISTORY + 1);
+            for (int sequence = firstSequence; sequence <= this.inputSequence; sequence++) {
+                this.game.movePlayer(this.playerPosition, this.inputs[sequence % INPUT_HISTORY], dt);
+            }
+        }
+        if (this.joined && this.controlsPlayer) {
+            // the player's position is sent exactly, and moved the same way here as on the server, so if
+            // the server used the same inputs this comes out exactly where we'd already predicted
+            double correction = Math.hypot(this.playerPosition.x - predictedX, this.playerPosition.y - predictedY);
+            if (correction > 0) {
+                this.corrections++;
+                this.totalCorrectionDistance += correction;
+                this.maxCorrectionDistance = Math.max(this.maxCorrectionDistance, correction);
+            }
+        }
+    }
+}
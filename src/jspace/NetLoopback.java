@@ -0,0 +1,186 @@
+package jspace;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Tries out NetServer and NetClient together in one process, over loopback, with SimulatedNetwork making
+ * the connection as bad as you like in both directions. The server and all the clients take turns on one
+ * thread, in real time. They all play with the same bot as Headless, but only the first one the server
+ * hears from actually controls the player (see NetServer). The rest just watch.
+ *
+ * Usage: java jspace.NetLoopback [--clients N] [--seconds N] [--settle-seconds N] [--tick-rate N]
+ *                                [--latency-ms N] [--jitter-ms N] [--loss N] [--crowd N] [--seed N]
+ *                                [--archetypes FILE]
+ * --latency-ms and --jitter-ms are each way, and --loss is the chance (0 to 1) of each packet going
+ * missing, each way. --crowd N keeps adding enemies just above the screen until there are N of them, to
+ * see how the server copes with a busy world.
+ *
+ * Every second it prints how much the clients are getting sent. At the end, the server stops updating
+ * the game for a few seconds (--settle-seconds), but keeps sending snapshots, and then it checks every
+ * client has ended up with exactly the same objects as the server. With a big crowd that can take longer,
+ * because each client only gets sent so much a tick. After that it prints how much each client cost the server,
+ * and how often prediction got the player in the wrong place.
+ */
+public class NetLoopback {
+    // how long the bot holds down each direction for (in ticks), the same as Headless
+    static final int SWEEP_TICKS = 120;
+
+    public static void main(String[] args) throws IOException {
+        // make sure nothing tries to open a window
+        System.setProperty("java.awt.headless", "true");
+
+        int clientCount = 4;
+        int seconds = 10;
+        int settleSeconds = 3;
+        int tickRate = 60;
+        double latency = 50;
+        double jitter = 10;
+        double loss = 0.05;
+        int crowd = 0;
+        long seed = 1;
+        String archetypesPath = Archetypes.DEFAULT_PATH;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--clients")) {
+                clientCount = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--seconds")) {
+                seconds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--settle-seconds")) {
+                settleSeconds = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--tick-rate")) {
+                tickRate = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--latency-ms")) {
+                latency = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--jitter-ms")) {
+                jitter = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--loss")) {
+                loss = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--crowd")) {
+                crowd = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--archetypes")) {
+                archetypesPath = args[++i];
+            } else {
+                System.err.println("unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        // the server and clients share the images, like MatchHost's matches do
+        GameAssets assets = new GameAssets(Archetypes.load(archetypesPath));
+        Game serverGame = new Game(assets);
+        serverGame.random.setSeed(seed);
+        serverGame.publishRenderSnapshots = false;
+        serverGame.logEvents = false;
+        NetServer server = new NetServer(serverGame, 0, tickRate, new SimulatedNetwork(latency, jitter, loss, seed));
+        server.maxClients = Math.max(server.maxClients, clientCount);
+        SocketAddress serverAddress = new InetSocketAddress("127.0.0.1", server.getPort());
+
+        NetClient[] clients = new NetClient[clientCount];
+        for (int i = 0; i < clientCount; i++) {
+            Game clientGame = new Game(assets);
+            clientGame.publishRenderSnapshots = false;
+            clients[i] = new NetClient(clientGame, serverAddress, new SimulatedNetwork(latency, jitter, loss, seed + 1 + i));
+        }
+        System.out.println(String.format(
+            "%d clients at %d ticks/sec, %.0f ms latency (+ up to %.0f ms jitter) and %.0f%% loss each way",
+            clientCount, tickRate, latency, jitter, loss * 100
+        ));
+
+        Random crowdRandom = new Random(seed);
+        long nanosecondsPerTick = 1000000000L / tickRate;
+        double dt = 1.0 / tickRate;
+        int ticks = seconds * tickRate;
+        int settleTicks = settleSeconds * tickRate;
+        long[] lastBytesReceived = new long[clientCount];
+        long nextTickTime = System.nanoTime();
+        for (int tick = 0; tick < ticks + settleTicks; tick++) {
+            boolean settling = tick >= ticks;
+            server.paused = settling;
+            if (!settling) {
+                for (int i = serverGame.getEnemyCount(); i < crowd; i++) {
+                    int[] enemyTypes = serverGame.archetypes.enemyTypes;
+                    int type = enemyTypes[crowdRandom.nextInt(enemyTypes.length)];
+                    serverGame.addObject(type, crowdRandom.nextDouble() * serverGame.screenWidth, -crowdRandom.nextDouble() * 150);
+                }
+            }
+            server.tick();
+            int botInput = settling ? 0 : Input.FIRE | ((tick / SWEEP_TICKS) % 2 == 0 ? Input.LEFT : Input.RIGHT);
+            for (NetClient client : clients) {
+                client.tick(botInput, dt);
+            }
+
+            if ((tick + 1) % tickRate == 0) {
+                StringBuilder line = new StringBuilder(String.format(
+                    "%s server objects: %6d   client kB/s:", settling ? "settling" : "tick " + (tick + 1), server.world.getObjectCount()
+                ));
+                for (int i = 0; i < clientCount; i++) {
+                    line.append(String.format(" %6.1f", (clients[i].bytesReceived - lastBytesReceived[i]) / 1024.0));
+                    lastBytesReceived[i] = clients[i].bytesReceived;
+                }
+                System.out.println(line);
+            }
+
+            nextTickTime += nanosecondsPerTick;
+            long nanosecondsToWait = nextTickTime - System.nanoTime();
+            if (nanosecondsToWait > 0) {
+                LockSupport.parkNanos(nanosecondsToWait);
+            }
+        }
+
+        for (int i = 0; i < clientCount; i++) {
+            NetClient client = clients[i];
+            NetServer.Client serverSide = findServerSide(server, client);
+            if (serverSide == null) {
+                System.out.println("client " + i + ": never got through to the server");
+                continue;
+            }
+            int different = countDifferences(server.world, client.world);
+            System.out.println(String.format(
+                "client %d: %s   sent %.1f kB/s (max snapshot %d bytes)   encode avg %.1f us, max %.1f us   "
+                    + "prediction corrections: %d (avg %.2f px, max %.2f px)",
+                i,
+                different == 0 ? "matches the server" : different + " objects differ from the server",
+                serverSide.bytesSent / 1024.0 / Math.max(1, serverSide.snapshotsSent) * tickRate,
+                serverSide.maxSnapshotBytes,
+                serverSide.encodeNanoseconds / 1000.0 / Math.max(1, serverSide.snapshotsSent),
+                serverSide.maxEncodeNanoseconds / 1000.0,
+                client.corrections,
+                client.totalCorrectionDistance / Math.max(1, client.corrections),
+                client.maxCorrectionDistance
+            ));
+        }
+        for (NetClient client : clients) {
+            client.close();
+        }
+        server.close();
+    }
+
+    // the server's record of a client. they're all on the same computer, so the port is enough to tell
+    private static NetServer.Client findServerSide(NetServer server, NetClient client) throws IOException {
+        for (NetServer.Client serverSide : server.clients) {
+            if (((InetSocketAddress) serverSide.address).getPort() == client.getLocalPort()) {
+                return serverSide;
+            }
+        }
+        return null;
+    }
+
+    // how many ids have a different object (or none) in the two states
+    private static int countDifferences(NetWorldState a, NetWorldState b) {
+        int different = 0;
+        int idCount = Math.max(a.idCount, b.idCount);
+        for (int id = 0; id < idCount; id++) {
+            byte type = a.getType(id);
+            if (type != b.getType(id) || (type != NetWorldState.NONE && (a.x[id] != b.x[id] || a.y[id] != b.y[id]))) {
+                different++;
+            }
+        }
+        return different;
+    }
+}
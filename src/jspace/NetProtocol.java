@@ -0,0 +1,110 @@
+package jspace;
+
+import java.nio.ByteBuffer;
+
+/*
+ * What NetServer and NetClient send each other. Everything goes over UDP, one packet at a time, and
+ * any packet can go missing, arrive twice or arrive out of order, so every packet makes sense on its own.
+ * The first byte of each packet says which kind it is:
+ *
+ * JOIN (client to server):
+ *   int    the cookie from the server's CHALLENGE, or 0 if it hasn't got one yet
+ * The client sends this every JOIN_RESEND_TICKS until the first snapshot arrives, and straight away when
+ * a CHALLENGE arrives.
+ *
+ * CHALLENGE (server to client), in answer to a JOIN or INPUT with the wrong cookie:
+ *   int    the cookie for the address the packet came from
+ * The server doesn't send anything else to an address until something comes back from it with the right
+ * cookie, which proves it's really there and not just someone putting its address on their packets. The
+ * CHALLENGE is no bigger than the JOIN it answers, so it's no use for bouncing a flood of packets off the
+ * server at someone else (see NetServer.cookieFor).
+ *
+ * INPUT (client to server), every client tick:
+ *   int    the cookie from the server's CHALLENGE, so a client which was dropped for going quiet gets
+ *          straight back in
+ *   int    the newest snapshot tick the client has got (its 'ack')
+ *   int    which of the 32 ticks before that it's got too, one bit each (bit 0 is the tick before)
+ *   int    the sequence number of the newest input
+ *   byte   how many inputs follow
+ *   bytes  the inputs (see Input), newest first. each one is for the sequence number before the last,
+ *          so each input gets sent INPUT_REDUNDANCY times, and losing a packet doesn't lose any input
+ *
+ * SNAPSHOT (server to client), every server tick:
+ *   int    the server's tick
+ *   int    the sequence number of the client's newest input the server has used
+ *   byte   flags: SNAPSHOT_CONTROLS_PLAYER if this client's input moves the player
+ *   short  screen width and height
+ *   double player x and y
+ *   short  how many records follow
+ *   records, one for each object which is different to what the client is known to have got:
+ *     varint  the object's id (see NetWorldState), as the difference from the previous record's id
+ *             (zigzag encoded, because it goes back to the start after the highest id)
+ *     byte    its type, or NetWorldState.NONE if it's gone
+ *     short   its x and y, quantized (see quantize). left out if it's gone
+ *
+ * See NetServer for how the server picks which objects go in each snapshot.
+ */
+public class NetProtocol {
+    public static final byte JOIN = 1;
+    public static final byte INPUT = 2;
+    public static final byte SNAPSHOT = 3;
+    public static final byte CHALLENGE = 4;
+
+    public static final int SNAPSHOT_CONTROLS_PLAYER = 1;
+
+    // no packet is bigger than this, so they never get split up on the way (which makes losing them
+    // more likely). this is what limits how much each client gets sent, however big the world gets
+    public static final int MAX_PACKET_SIZE = 1200;
+    public static final int SNAPSHOT_HEADER_SIZE = 1 + 4 + 4 + 1 + 2 + 2 + 8 + 8 + 2;
+    // the biggest a snapshot record can be: a 5 byte varint, the type, and x and y
+    public static final int MAX_RECORD_SIZE = 5 + 1 + 2 + 2;
+    // how many times each input gets sent (see INPUT above)
+    public static final int INPUT_REDUNDANCY = 8;
+    // how often a client says JOIN until it hears back (in ticks)
+    public static final int JOIN_RESEND_TICKS = 30;
+
+    // positions are sent in 1/QUANTIZE_SCALE pixel units, which fits anywhere an object can be (up to
+    // Game.OFFSCREEN_SPACE off the screen) in a short for screens up to about 3800 pixels across
+    public static final int QUANTIZE_SCALE = 8;
+
+    public static short quantize(double position) {
+        long quantized = Math.round(position * QUANTIZE_SCALE);
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, quantized));
+    }
+
+    public static double unquantize(short quantized) {
+        return (double) quantized / QUANTIZE_SCALE;
+    }
+
+    // write an int in as few bytes as it needs, 7 bits at a time, with the top bit of each byte set if
+    // there's another one after it. small numbers (like the gap between two ids) only take one byte
+    public static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    public static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("varint is too long");
+    }
+
+    // 'zigzag' encoding turns small negative numbers into small positive ones (0, -1, 1, -2... become
+    // 0, 1, 2, 3...), so they fit in a short varint too
+    public static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    public static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
@@ -0,0 +1,557 @@
+package jspace;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/*
+ * Runs a game for clients on other computers (see NetClient). The server's game is the real one: it's
+ * the only place Game.update gets called, and the clients just show what it sends them. The first client
+ * to join controls the player, by sending its input every tick, and any others just watch. If that client
+ * goes quiet for CLIENT_TIMEOUT_TICKS, the next one takes over.
+ *
+ * Everything happens on one thread, with one non-blocking DatagramChannel for all the clients. Between
+ * ticks the thread waits on a Selector, so packets get read as soon as they arrive, without a thread per
+ * client. See NetProtocol for what's in the packets.
+ *
+ * Anyone can put any address on a UDP packet, so the server doesn't believe a packet comes from the
+ * address on it until the client has sent back the cookie the server sent to that address (see
+ * NetProtocol.CHALLENGE). Until then, all it gets is the cookie, which is no bigger than what it sent.
+ * Otherwise a single tiny forged JOIN would get someone else sent a full snapshot every tick until they
+ * timed out. There's also a limit on how many clients there can be (maxClients), since each one costs
+ * a snapshot every tick and a SNAPSHOT_HISTORY of memory.
+ *
+ * Every tick, each client gets sent a snapshot of the objects which are different to what that client
+ * is known to have: ie. what was in the snapshots it has acked. Anything it hasn't acked yet gets sent
+ * again, so lost snapshots don't matter, and anything which hasn't changed doesn't get sent at all. To
+ * stop that getting out of hand when there are lots of objects, each snapshot has two limits: it's never
+ * bigger than NetProtocol.MAX_PACKET_SIZE, and it never looks at more than MAX_IDS_CHECKED_PER_SNAPSHOT
+ * ids. Each client's snapshots carry on from the id where the last one stopped, going round and round all
+ * the ids, so when there's too much to send at once, everything still gets sent in turn over the next
+ * few ticks. That means each client costs the same amount of bandwidth and time each tick (at most),
+ * however many objects there are.
+ *
+ * Usage: java jspace.NetServer [--port N] [--tick-rate N] [--seed N] [--width N] [--height N]
+ *                              [--max-clients N] [--latency-ms N] [--jitter-ms N] [--loss N]
+ *                              [--archetypes FILE]
+ * --latency-ms, --jitter-ms and --loss (a chance from 0 to 1) hold back or drop the packets the server
+ * sends, to see how the game copes with a bad connection (see SimulatedNetwork). Connect to it with the
+ * game window by starting it with -Djspace.connect=host:port, or try lots of clients at once with
+ * NetLoopback.
+ */
+public class NetServer {
+    public static final int DEFAULT_PORT = 7777;
+    // the most ids each snapshot looks at. with 3 stores, this is about 5000 objects
+    static final int MAX_IDS_CHECKED_PER_SNAPSHOT = 16384;
+    // how many of the snapshots sent to each client are remembered, until they're acked. snapshots older
+    // than this can't be acked any more, and whatever was in them just gets sent again
+    static final int SNAPSHOT_HISTORY = 64;
+    // how many of each client's inputs are kept, waiting to be used
+    static final int INPUT_BUFFER_SIZE = 64;
+    // if the client's input gets more than this many ticks ahead of the server (eg. because the server
+    // stalled), the server skips ahead instead of falling further and further behind
+    static final int MAX_INPUT_BACKLOG = 4;
+    // clients which haven't sent anything for this many ticks are forgotten about
+    static final int CLIENT_TIMEOUT_TICKS = 300;
+    // the most ticks run() will do in one go to catch up (the same as Main)
+    static final int MAX_CATCH_UP_TICKS = 5;
+    // how many clients can be connected at once, unless maxClients is changed
+    public static final int DEFAULT_MAX_CLIENTS = 16;
+
+    // everything the server knows about one client
+    public static class Client {
+        public final SocketAddress address;
+        // the cookie this client has to put in every packet (see cookieFor)
+        final int cookie;
+        // the last tick anything arrived from this client
+        int lastHeardTick;
+
+        // the objects this client is known to have got (from the snapshots it has acked), and the tick of
+        // the snapshot each one came from, so an older snapshot being acked late doesn't overwrite it
+        final NetWorldState acked = new NetWorldState();
+        int[] ackedTickOfId = new int[256];
+        // the snapshots sent to this client, by tick % SNAPSHOT_HISTORY
+        final SentSnapshot[] sent = new SentSnapshot[SNAPSHOT_HISTORY];
+        // where the next snapshot starts looking for objects to send
+        int nextIdToCheck = 0;
+
+        // the client's inputs which have arrived, by sequence number % INPUT_BUFFER_SIZE
+        final int[] inputs = new int[INPUT_BUFFER_SIZE];
+        final int[] inputSequences = new int[INPUT_BUFFER_SIZE];
+        int newestInputSequence = 0;
+        // the input the player is moving with, and its sequence number
+        int input = 0;
+        int inputSequence = 0;
+
+        // how much this client has been sent, and how long its snapshots took to make
+        public long snapshotsSent = 0;
+        public long bytesSent = 0;
+        public int maxSnapshotBytes = 0;
+        public long encodeNanoseconds = 0;
+        public long maxEncodeNanoseconds = 0;
+
+        Client(SocketAddress address, int cookie, int tick) {
+            this.address = address;
+            this.cookie = cookie;
+            this.lastHeardTick = tick;
+            for (int i = 0; i < SNAPSHOT_HISTORY; i++) {
+                this.sent[i] = new SentSnapshot();
+            }
+        }
+
+        // the input for this tick: the next one the client sent, if it's arrived
+        int takeNextInput() {
+            if (this.newestInputSequence <= this.inputSequence) {
+                // nothing new yet, so carry on doing the same as last tick
+                return this.input;
+            }
+            int sequence = Math.max(this.inputSequence + 1, this.newestInputSequence - MAX_INPUT_BACKLOG);
+            // skip any which never arrived at all, even with the repeats. the newest one is always there
+            while (this.inputSequences[sequence % INPUT_BUFFER_SIZE] != sequence) {
+                sequence++;
+            }
+            this.inputSequence = sequence;
+            this.input = this.inputs[sequence % INPUT_BUFFER_SIZE];
+            return this.input;
+        }
+
+        // the client has got the snapshot from this tick, so it's got everything in it
+        void ackSnapshot(int tick) {
+            if (tick <= 0) {
+                return;
+            }
+            SentSnapshot snapshot = this.sent[tick % SNAPSHOT_HISTORY];
+            if (snapshot.tick != tick || snapshot.acked) {
+                return;
+            }
+            snapshot.acked = true;
+            for (int i = 0; i < snapshot.count; i++) {
+                int id = snapshot.id[i];
+                if (id >= this.ackedTickOfId.length) {
+                    this.ackedTickOfId = Arrays.copyOf(this.ackedTickOfId, Math.max(id + 1, this.ackedTickOfId.length * 2));
+                }
+                if (this.ackedTickOfId[id] < tick) {
+                    this.ackedTickOfId[id] = tick;
+                    this.acked.set(id, snapshot.type[i], snapshot.x[i], snapshot.y[i]);
+                }
+            }
+        }
+    }
+
+    // the records in a snapshot which has been sent, so that when it's acked we know what the client has got
+    static class SentSnapshot {
+        int tick = -1;
+        boolean acked;
+        int count = 0;
+        int[] id = new int[64];
+        byte[] type = new byte[64];
+        short[] x = new short[64];
+        short[] y = new short[64];
+
+        void add(int id, byte type, short x, short y) {
+            if (this.count == this.id.length) {
+                int newCapacity = this.count * 2;
+                this.id = Arrays.copyOf(this.id, newCapacity);
+                this.type = Arrays.copyOf(this.type, newCapacity);
+                this.x = Arrays.copyOf(this.x, newCapacity);
+                this.y = Arrays.copyOf(this.y, newCapacity);
+            }
+            int i = this.count++;
+            this.id[i] = id;
+            this.type[i] = type;
+            this.x[i] = x;
+            this.y[i] = y;
+        }
+    }
+
+    public final Game game;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final SimulatedNetwork network;
+    private final long nanosecondsPerTick;
+    private final double dt;
+    private int tick = 0;
+    // when this is true, the game stops being updated but snapshots keep going out, so every client ends
+    // up with exactly what the server has (see NetLoopback)
+    public boolean paused = false;
+    private volatile boolean stopped = false;
+
+    // the world as it is this tick, to compare with what each client has got
+    final NetWorldState world = new NetWorldState();
+    final ArrayList<Client> clients = new ArrayList<Client>();
+    private final HashMap<SocketAddress, Client> clientsByAddress = new HashMap<SocketAddress, Client>();
+    // the client whose input moves the player, if any
+    private Client controller = null;
+    // any more clients than this just don't get let in, until someone leaves
+    public int maxClients = DEFAULT_MAX_CLIENTS;
+    // makes the cookies. its key is made up when the server starts, so nobody else can work them out
+    private final Mac cookieMac;
+
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocate(NetProtocol.MAX_PACKET_SIZE);
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(NetProtocol.MAX_PACKET_SIZE);
+    // how many packets which didn't make sense were thrown away
+    public long badPackets = 0;
+    // how many times a client had the right cookie but couldn't join because there were maxClients already
+    public long rejectedJoins = 0;
+
+    // port 0 picks any free port (see getPort)
+    public NetServer(Game game, int port, int tickRate, SimulatedNetwork network) throws IOException {
+        this.game = game;
+        this.network = network;
+        this.nanosecondsPerTick = 1000000000L / tickRate;
+        this.dt = 1.0 / tickRate;
+        this.channel = DatagramChannel.open();
+        this.channel.configureBlocking(false);
+        this.channel.bind(new InetSocketAddress(port));
+        this.selector = Selector.open();
+        this.channel.register(this.selector, SelectionKey.OP_READ);
+
+        byte[] cookieKey = new byte[32];
+        new SecureRandom().nextBytes(cookieKey);
+        try {
+            this.cookieMac = Mac.getInstance("HmacSHA256");
+            this.cookieMac.init(new SecretKeySpec(cookieKey, "HmacSHA256"));
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) this.channel.getLocalAddress()).getPort();
+    }
+
+    public int getTick() {
+        return this.tick;
+    }
+
+    // run the game in real time for the given time (or until stop() is called)
+    public void run(long forNanoseconds) throws IOException {
+        long endTime = System.nanoTime() + forNanoseconds;
+        long nextTickTime = System.nanoTime();
+        while (!this.stopped) {
+            long now = System.nanoTime();
+            if (now >= endTime) {
+                break;
+            }
+            if (now >= nextTickTime) {
+                this.tick();
+                nextTickTime += this.nanosecondsPerTick;
+                if (nextTickTime < now - this.nanosecondsPerTick * MAX_CATCH_UP_TICKS) {
+                    // too far behind to catch up (see Main.runGameMainLoop)
+                    nextTickTime = now;
+                }
+                continue;
+            }
+            // wait until it's time for the next tick, or a packet arrives. select() only goes down to the
+            // millisecond, so this can wake up to a millisecond early, which is fine
+            long millisecondsToWait = Math.max(1, (nextTickTime - now) / 1000000);
+            if (this.selector.select(millisecondsToWait) > 0) {
+                this.selector.selectedKeys().clear();
+                this.receivePackets();
+            }
+            this.network.flush(this.channel);
+        }
+    }
+
+    public void stop() {
+        this.stopped = true;
+        this.selector.wakeup();
+    }
+
+    public void close() throws IOException {
+        this.selector.close();
+        this.channel.close();
+    }
+
+    // read everything which has arrived, update the game, and send every client a snapshot
+    public void tick() throws IOException {
+        this.receivePackets();
+        this.tick++;
+        this.dropQuietClients();
+
+        if (!this.paused) {
+            this.game.input = this.controller != null ? this.controller.takeNextInput() : 0;
+            this.game.update(this.dt);
+        }
+        this.game.captureNetWorldState(this.world);
+        for (int i = 0; i < this.clients.size(); i++) {
+            this.sendSnapshot(this.clients.get(i));
+        }
+        this.network.flush(this.channel);
+    }
+
+    private void receivePackets() throws IOException {
+        while (true) {
+            this.receiveBuffer.clear();
+            SocketAddress from = this.channel.receive(this.receiveBuffer);
+            if (from == null) {
+                return;
+            }
+            this.receiveBuffer.flip();
+            try {
+                this.handlePacket(from, this.receiveBuffer);
+            } catch (BufferUnderflowException e) {
+                // too short for what it says it is
+                this.badPackets++;
+            }
+        }
+    }
+
+    private void handlePacket(SocketAddress from, ByteBuffer packet) throws IOException {
+        byte packetType = packet.get();
+        if (packetType != NetProtocol.JOIN && packetType != NetProtocol.INPUT) {
+            this.badPackets++;
+            return;
+        }
+        int cookie = packet.getInt();
+        Client client = this.clientsByAddress.get(from);
+        if (client == null) {
+            int expectedCookie = this.cookieFor(from);
+            if (cookie != expectedCookie) {
+                // we haven't heard back from this address yet, so it might not be what really sent this.
+                // all it gets is its cookie, which is no bigger than the smallest packet it could have sent
+                this.sendChallenge(from, expectedCookie);
+                return;
+            }
+            if (this.clients.size() >= this.maxClients) {
+                // it'll try again (see NetProtocol.JOIN_RESEND_TICKS), and get in once someone leaves
+                this.rejectedJoins++;
+                return;
+            }
+            // anyone with the right cookie is joining, so a client whose JOIN got lost, or who was
+            // dropped for being quiet, gets back in as soon as it sends its input
+            client = new Client(from, cookie, this.tick);
+            this.clients.add(client);
+            this.clientsByAddress.put(from, client);
+            if (this.controller == null) {
+                this.controller = client;
+            }
+        } else if (cookie != client.cookie) {
+            // someone else putting the client's address on their packets
+            this.badPackets++;
+            return;
+        }
+        client.lastHeardTick = this.tick;
+        if (packetType == NetProtocol.JOIN) {
+            return;
+        }
+
+        int ackTick = packet.getInt();
+        int ackBits = packet.getInt();
+        client.ackSnapshot(ackTick);
+        for (int i = 0; i < 32; i++) {
+            if ((ackBits & (1 << i)) != 0) {
+                client.ackSnapshot(ackTick - 1 - i);
+            }
+        }
+
+        int sequence = packet.getInt();
+        int count = packet.get();
+        if (count < 0 || count > NetProtocol.INPUT_REDUNDANCY) {
+            this.badPackets++;
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            int input = packet.get();
+            int inputSequence = sequence - i;
+            // anything we've already used, or which is too old to fit in the buffer, is no use
+            if (inputSequence <= client.inputSequence || inputSequence <= client.newestInputSequence - INPUT_BUFFER_SIZE) {
+                continue;
+            }
+            client.inputs[inputSequence % INPUT_BUFFER_SIZE] = input;
+            client.inputSequences[inputSequence % INPUT_BUFFER_SIZE] = inputSequence;
+            client.newestInputSequence = Math.max(client.newestInputSequence, inputSequence);
+        }
+    }
+
+    // the cookie for an address: a hash of the address and port, keyed with a secret only the server knows.
+    // so the only way to find out an address's cookie is to get packets sent to that address. it's never
+    // 0, which is what a client sends before it's got one
+    int cookieFor(SocketAddress address) {
+        InetSocketAddress inetAddress = (InetSocketAddress) address;
+        int port = inetAddress.getPort();
+        this.cookieMac.update(inetAddress.getAddress().getAddress());
+        this.cookieMac.update((byte) (port >> 8));
+        this.cookieMac.update((byte) port);
+        byte[] hash = this.cookieMac.doFinal();
+        int cookie = ((hash[0] & 0xff) << 24) | ((hash[1] & 0xff) << 16) | ((hash[2] & 0xff) << 8) | (hash[3] & 0xff);
+        return cookie != 0 ? cookie : 1;
+    }
+
+    private void sendChallenge(SocketAddress to, int cookie) throws IOException {
+        ByteBuffer packet = this.sendBuffer;
+        packet.clear();
+        packet.put(NetProtocol.CHALLENGE);
+        packet.putInt(cookie);
+        packet.flip();
+        this.network.send(this.channel, packet, to);
+    }
+
+    private void dropQuietClients() {
+        for (int i = this.clients.size() - 1; i >= 0; i--) {
+            Client client = this.clients.get(i);
+            if (this.tick - client.lastHeardTick > CLIENT_TIMEOUT_TICKS) {
+                this.clients.remove(i);
+                this.clientsByAddress.remove(client.address);
+                if (client == this.controller) {
+                    this.controller = null;
+                }
+            }
+        }
+        if (this.controller == null && !this.clients.isEmpty()) {
+            this.controller = this.clients.get(0);
+        }
+    }
+
+    // send a client everything which is different to what it's known to have, up to the limits (see the top)
+    private void sendSnapshot(Client client) throws IOException {
+        long startTime = System.nanoTime();
+        ByteBuffer packet = this.sendBuffer;
+        packet.clear();
+        packet.put(NetProtocol.SNAPSHOT);
+        packet.putInt(this.tick);
+        packet.putInt(client.inputSequence);
+        packet.put((byte) (client == this.controller ? NetProtocol.SNAPSHOT_CONTROLS_PLAYER : 0));
+        packet.putShort((short) this.game.screenWidth);
+        packet.putShort((short) this.game.screenHeight);
+        packet.putDouble(this.game.getPlayerX());
+        packet.putDouble(this.game.getPlayerY());
+        int recordCountPosition = packet.position();
+        packet.putShort((short) 0);
+
+        SentSnapshot sent = client.sent[this.tick % SNAPSHOT_HISTORY];
+        sent.tick = this.tick;
+        sent.acked = false;
+        sent.count = 0;
+
+        NetWorldState world = this.world;
+        NetWorldState acked = client.acked;
+        // ids which are gone from the world but the client still has need looking at too, to remove them
+        int idCount = Math.max(world.idCount, acked.idCount);
+        int idsToCheck = Math.min(idCount, MAX_IDS_CHECKED_PER_SNAPSHOT);
+        int id = client.nextIdToCheck < idCount ? client.nextIdToCheck : 0;
+        int previousId = -1;
+        for (int checked = 0; checked < idsToCheck; checked++) {
+            byte type = world.getType(id);
+            byte ackedType = acked.getType(id);
+            boolean changed = type != ackedType
+                || (type != NetWorldState.NONE && (world.x[id] != acked.x[id] || world.y[id] != acked.y[id]));
+            if (changed) {
+                if (packet.remaining() < NetProtocol.MAX_RECORD_SIZE) {
+                    // full, so the next snapshot starts from this one
+                    break;
+                }
+                NetProtocol.putVarInt(packet, NetProtocol.zigzag(id - previousId));
+                previousId = id;
+                packet.put(type);
+                short x = 0;
+                short y = 0;
+                if (type != NetWorldState.NONE) {
+                    x = world.x[id];
+                    y = world.y[id];
+                    packet.putShort(x);
+                    packet.putShort(y);
+                }
+                sent.add(id, type, x, y);
+            }
+            id++;
+            if (id == idCount) {
+                id = 0;
+            }
+        }
+        client.nextIdToCheck = id;
+        packet.putShort(recordCountPosition, (short) sent.count);
+        packet.flip();
+
+        int bytes = packet.remaining();
+        long encodeTime = System.nanoTime() - startTime;
+        client.snapshotsSent++;
+        client.bytesSent += bytes;
+        client.maxSnapshotBytes = Math.max(client.maxSnapshotBytes, bytes);
+        client.encodeNanoseconds += encodeTime;
+        client.maxEncodeNanoseconds = Math.max(client.maxEncodeNanoseconds, encodeTime);
+        this.network.send(this.channel, packet, client.address);
+    }
+
+    public static void main(String[] args) throws IOException {
+        // make sure nothing tries to open a window
+        System.setProperty("java.awt.headless", "true");
+
+        int port = DEFAULT_PORT;
+        int tickRate = 60;
+        long seed = 1;
+        int width = 800;
+        int height = 600;
+        int maxClients = DEFAULT_MAX_CLIENTS;
+        double latency = 0;
+        double jitter = 0;
+        double loss = 0;
+        String archetypesPath = Archetypes.DEFAULT_PATH;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--tick-rate")) {
+                tickRate = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--width")) {
+                width = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--height")) {
+                height = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--max-clients")) {
+                maxClients = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--latency-ms")) {
+                latency = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--jitter-ms")) {
+                jitter = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--loss")) {
+                loss = Double.parseDouble(args[++i]);
+            } else if (arg.equals("--archetypes")) {
+                archetypesPath = args[++i];
+            } else {
+                System.err.println("unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        Game game = new Game(Archetypes.load(archetypesPath));
+        game.random.setSeed(seed);
+        game.screenWidth = width;
+        game.screenHeight = height;
+        game.publishRenderSnapshots = false;
+        game.logEvents = false;
+        NetServer server = new NetServer(game, port, tickRate, new SimulatedNetwork(latency, jitter, loss, seed));
+        server.maxClients = maxClients;
+        System.out.println("listening on port " + server.getPort() + " at " + tickRate + " ticks/sec");
+
+        // run for a second at a time, and print how it went in between
+        while (true) {
+            server.run(1000000000L);
+            StringBuilder line = new StringBuilder(String.format(
+                "tick %d   objects: %d   clients: %d/%d", server.tick, server.world.getObjectCount(), server.clients.size(), server.maxClients
+            ));
+            for (Client client : server.clients) {
+                line.append(String.format(
+                    "   [%s %.1f kB/s, encode avg %.1f us]",
+                    client.address,
+                    client.bytesSent / 1024.0 / Math.max(1, client.snapshotsSent) * tickRate,
+                    client.encodeNanoseconds / 1000.0 / Math.max(1, client.snapshotsSent)
+                ));
+            }
+            System.out.println(line);
+        }
+    }
+}
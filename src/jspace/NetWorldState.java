@@ -0,0 +1,81 @@
+package jspace;
+
+import java.util.Arrays;
+
+/*
+ * The game world the way it gets sent over the network: just the type and position of each enemy and
+ * projectile, with the positions rounded to 1/NetProtocol.QUANTIZE_SCALE of a pixel and kept in shorts
+ * (see NetProtocol.quantize). NetServer keeps one of these for the world as it is now, and one for each
+ * client of what that client is known to have got. NetClient keeps one of what it's been told so far.
+ *
+ * Everything is indexed by an 'id' rather than a slot, because slots change every tick (see
+ * EntityStore.compact) and the two ends of the connection need to agree on which object is which. The id
+ * is the object's handle index (see EntityStore.getHandleIndex) with the store it's in mixed in:
+ * handleIndex * STORE_COUNT + store. Handle indexes are small and get reused, so the ids stay small too,
+ * and the arrays here don't get much bigger than the most objects there have been at once.
+ */
+public class NetWorldState {
+    // what type[] holds for an id which doesn't have an object
+    public static final byte NONE = -1;
+    // the enemies, the player's projectiles, and the enemies' projectiles
+    public static final int STORE_COUNT = 3;
+    // ids are always below this
+    public static final int MAX_IDS = STORE_COUNT * EntityStore.MAX_HANDLE_INDEXES;
+
+    // the type of the object with each id (or NONE), and where it is
+    public byte[] type = new byte[256];
+    public short[] x = new short[256];
+    public short[] y = new short[256];
+    // every id at or above this is NONE, so loops over the ids only need to go up to here
+    public int idCount = 0;
+
+    public NetWorldState() {
+        Arrays.fill(this.type, NONE);
+    }
+
+    public static int getId(int handle, int store) {
+        return EntityStore.getHandleIndex(handle) * STORE_COUNT + store;
+    }
+
+    public byte getType(int id) {
+        return id < this.idCount ? this.type[id] : NONE;
+    }
+
+    public void set(int id, int type, short x, short y) {
+        if (id >= this.type.length) {
+            this.grow(id + 1);
+        }
+        this.type[id] = (byte) type;
+        this.x[id] = x;
+        this.y[id] = y;
+        if (id >= this.idCount && type != NONE) {
+            this.idCount = id + 1;
+        }
+    }
+
+    // take everything out, without making the arrays any smaller
+    public void clear() {
+        Arrays.fill(this.type, 0, this.idCount, NONE);
+        this.idCount = 0;
+    }
+
+    // how many ids have an object
+    public int getObjectCount() {
+        int count = 0;
+        for (int id = 0; id < this.idCount; id++) {
+            if (this.type[id] != NONE) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void grow(int minimumCapacity) {
+        int oldCapacity = this.type.length;
+        int newCapacity = Math.max(minimumCapacity, oldCapacity * 2);
+        this.type = Arrays.copyOf(this.type, newCapacity);
+        this.x = Arrays.copyOf(this.x, newCapacity);
+        this.y = Arrays.copyOf(this.y, newCapacity);
+        Arrays.fill(this.type, oldCapacity, newCapacity, NONE);
+    }
+}
@@ -1,20 +1,25 @@
 package jspace;
 
 public class Player extends GameObject {
+    // x,y position in the game world. there's only one player, so unlike enemies and projectiles
+    // it just keeps its own data instead of living in an EntityStore
+    public Vector2d position;
+    // where the player was at the end of the previous update (see EntityStore.previousX)
+    public Vector2d previousPosition;
     // time that player last fired a projectile. used to figure out when they can fire another.
     public double lastShot = 0;
 
-    Player() {
-        super(Type.player);
+    Player(int type) {
+        super(type);
+        this.position = new Vector2d(0, 0);
+        this.previousPosition = new Vector2d(0, 0);
     }
 
-
-    public int getSpeed() {
-        return 150;
+    public double getX() {
+        return this.position.x;
     }
 
-    // get the cooldown time before the player can shoot again
-    public double getCooldownTime() {
-        return 0.2;
+    public double getY() {
+        return this.position.y;
     }
 }
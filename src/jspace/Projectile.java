@@ -1,15 +1,24 @@
 package jspace;
 
+/*
+ * A projectile. Like Enemy, this is just a view of one slot of an EntityStore.
+ */
 public class Projectile extends GameObject {
-    Projectile (Type type) {
-        super(type);
+    // the store holding this projectile's data, and which slot of it this projectile is
+    private EntityStore store;
+    private int slot;
+
+    Projectile(EntityStore store, int slot) {
+        super(store.type[slot]);
+        this.store = store;
+        this.slot = slot;
+    }
+
+    public double getX() {
+        return this.store.x[this.slot];
     }
 
-    public int getSpeed() {
-        switch (this.type) {
-            case enemy_projectile: return 200;
-            case player_projectile: return 200;
-        }
-        throw new RuntimeException("invalid projectile type");
+    public double getY() {
+        return this.store.y[this.slot];
     }
 }
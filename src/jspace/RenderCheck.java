@@ -0,0 +1,206 @@
+package jspace;
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Random;
+
+/*
+ * Checks SoftwareRenderer draws exactly the same picture as Java2D, pixel for pixel. It fills games with
+ * objects, including ones hanging off every edge and corner of the screen and ones right off it, and draws
+ * the same RenderSnapshot with Game.draw into a TYPE_INT_RGB image twice: once with Java2D and once with
+ * SoftwareRenderer (in parallel, and again one tile at a time). Then it compares every pixel.
+ *
+ * It does that with the real sprites, which are all either solid or see-through, and then again with made
+ * up sprites which have pixels of every alpha value, so the blending gets checked too. Those are drawn
+ * part way between ticks as well (see Game.draw), by drawing a RenderSnapshot directly, because Game.draw
+ * works out how far between ticks it is from the clock.
+ *
+ * Usage: java jspace.RenderCheck [--seed N] [--objects N] [--archetypes FILE]
+ *
+ * It prints how each check went, and exits with status 1 if any pixel was different.
+ */
+public class RenderCheck {
+    // screen sizes to try. the odd ones don't fit a whole number of tiles
+    static final int[][] SCREEN_SIZES = {{800, 600}, {797, 601}, {63, 65}};
+
+    public static void main(String[] args) {
+        // make sure nothing tries to open a window
+        System.setProperty("java.awt.headless", "true");
+
+        long seed = 1;
+        int objectCount = 5000;
+        String archetypesPath = Archetypes.DEFAULT_PATH;
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (arg.equals("--seed")) {
+                seed = Long.parseLong(args[++i]);
+            } else if (arg.equals("--objects")) {
+                objectCount = Integer.parseInt(args[++i]);
+            } else if (arg.equals("--archetypes")) {
+                archetypesPath = args[++i];
+            } else {
+                System.err.println("unknown argument: " + arg);
+                System.exit(2);
+            }
+        }
+
+        Archetypes archetypes = Archetypes.load(archetypesPath);
+        Random random = new Random(seed);
+        GameAssets realSprites = new GameAssets(archetypes, (String) null);
+        GameAssets madeUpSprites = new GameAssets(archetypes, makeSprites(realSprites.spriteAtlas, archetypes.count, random));
+
+        int failures = 0;
+        for (int[] size : SCREEN_SIZES) {
+            for (int count : new int[] {0, 10, objectCount}) {
+                failures += checkGame("real sprites", realSprites, size[0], size[1], count, random);
+                failures += checkGame("made up sprites", madeUpSprites, size[0], size[1], count, random);
+            }
+            for (double alpha : new double[] {0, 0.25, 0.5, 0.9}) {
+                failures += checkSnapshot(madeUpSprites.spriteAtlas, archetypes.count, size[0], size[1], objectCount, alpha, random);
+            }
+        }
+        if (failures > 0) {
+            System.out.println(failures + " checks FAILED");
+            System.exit(1);
+        }
+        System.out.println("all checks passed");
+    }
+
+    // draw a game full of objects with Java2D and with SoftwareRenderer through Game.draw, and compare them.
+    // returns the number of comparisons that failed
+    private static int checkGame(String name, GameAssets assets, int width, int height, int count, Random random) {
+        Game game = new Game(assets);
+        game.logEvents = false;
+        game.screenWidth = width;
+        game.screenHeight = height;
+        addObjects(game, assets.archetypes, count, random);
+        // a tick long enough that the snapshot is always drawn where things are now (see
+        // RenderSnapshot.getInterpolationAlpha), so both draws put everything in the same place
+        game.publishRenderSnapshot(0);
+
+        BufferedImage java2d = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        drawInto(game, java2d);
+        BufferedImage software = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        game.softwareRenderer = new SoftwareRenderer();
+        drawInto(game, software);
+        int failures = compare(name + ", " + width + "x" + height + ", " + count + " objects, parallel", java2d, software);
+
+        game.softwareRenderer.useParallel = false;
+        drawInto(game, software);
+        failures += compare(name + ", " + width + "x" + height + ", " + count + " objects, one tile at a time", java2d, software);
+        return failures;
+    }
+
+    // draw a snapshot part way between ticks with Java2D, the same way Game.draw does, and with
+    // SoftwareRenderer, and compare them
+    private static int checkSnapshot(SpriteAtlas spriteAtlas, int typeCount, int width, int height, int count, double alpha, Random random) {
+        RenderSnapshot snapshot = new RenderSnapshot();
+        snapshot.screenWidth = width;
+        snapshot.screenHeight = height;
+        for (int i = 0; i < count; i++) {
+            snapshot.add(
+                random.nextInt(typeCount),
+                -80 + random.nextDouble() * (width + 160), -80 + random.nextDouble() * (height + 160),
+                -80 + random.nextDouble() * (width + 160), -80 + random.nextDouble() * (height + 160)
+            );
+        }
+
+        BufferedImage java2d = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics g = java2d.getGraphics();
+        g.setColor(Color.BLACK);
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < snapshot.count; i++) {
+            int type = snapshot.type[i];
+            int spriteWidth = spriteAtlas.getWidth(type);
+            int spriteHeight = spriteAtlas.getHeight(type);
+            double x = snapshot.previousX[i] + (snapshot.x[i] - snapshot.previousX[i]) * alpha;
+            double y = snapshot.previousY[i] + (snapshot.y[i] - snapshot.previousY[i]) * alpha;
+            spriteAtlas.draw(g, type, SpriteAtlas.getCorner(x, spriteWidth), SpriteAtlas.getCorner(y, spriteHeight));
+        }
+        g.dispose();
+
+        BufferedImage software = new SoftwareRenderer().draw(snapshot, alpha, spriteAtlas);
+        return compare("made up sprites, " + width + "x" + height + ", " + count + " objects, " + alpha + " of the way between ticks", java2d, software);
+    }
+
+    // some objects in random places (including off the screen), and one of each type hanging off each edge
+    // and corner, and one of each just off each edge
+    private static void addObjects(Game game, Archetypes archetypes, int count, Random random) {
+        int width = game.screenWidth;
+        int height = game.screenHeight;
+        for (int i = 0; i < count; i++) {
+            int type = random.nextInt(archetypes.count);
+            if (type == archetypes.playerType) {
+                continue;
+            }
+            game.addObject(type, -100 + random.nextDouble() * (width + 200), -100 + random.nextDouble() * (height + 200));
+        }
+        for (int type = 0; type < archetypes.count; type++) {
+            if (type == archetypes.playerType) {
+                continue;
+            }
+            double[] xs = {0, width / 2.0, width, -100, width + 100};
+            double[] ys = {0, height / 2.0, height, -100, height + 100};
+            for (double x : xs) {
+                for (double y : ys) {
+                    game.addObject(type, x + random.nextDouble() * 6 - 3, y + random.nextDouble() * 6 - 3);
+                }
+            }
+        }
+    }
+
+    // a sprite the same size as each real one. the even types only have solid or see-through pixels, like
+    // the real ones, and the odd ones have every alpha value
+    private static BufferedImage[] makeSprites(SpriteAtlas realSprites, int typeCount, Random random) {
+        BufferedImage[] images = new BufferedImage[typeCount];
+        for (int type = 0; type < typeCount; type++) {
+            int width = realSprites.getWidth(type);
+            int height = realSprites.getHeight(type);
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int color = random.nextInt() & 0xffffff;
+                    int alpha = type % 2 == 0 ? (random.nextBoolean() ? 0xff : 0) : (x + y * width) % 256;
+                    image.setRGB(x, y, (alpha << 24) | color);
+                }
+            }
+            images[type] = image;
+        }
+        return images;
+    }
+
+    private static void drawInto(Game game, BufferedImage image) {
+        Graphics g = image.getGraphics();
+        game.graphics = g;
+        game.draw();
+        g.dispose();
+    }
+
+    // print how the comparison went, and return 1 if any pixels were different
+    private static int compare(String name, BufferedImage expected, BufferedImage actual) {
+        int[] expectedPixels = ((DataBufferInt) expected.getRaster().getDataBuffer()).getData();
+        int[] actualPixels = ((DataBufferInt) actual.getRaster().getDataBuffer()).getData();
+        int width = expected.getWidth();
+        int different = 0;
+        int firstDifferent = -1;
+        for (int i = 0; i < expectedPixels.length; i++) {
+            if (expectedPixels[i] != actualPixels[i]) {
+                if (different == 0) {
+                    firstDifferent = i;
+                }
+                different++;
+            }
+        }
+        if (different == 0) {
+            System.out.println("same:      " + name);
+            return 0;
+        }
+        System.out.println(String.format(
+            "DIFFERENT: %s: %d pixels, first at %d,%d (%08x from Java2D, %08x from SoftwareRenderer)",
+            name, different, firstDifferent % width, firstDifferent / width, expectedPixels[firstDifferent], actualPixels[firstDifferent]
+        ));
+        return 1;
+    }
+}
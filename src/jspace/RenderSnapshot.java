@@ -0,0 +1,97 @@
+package jspace;
+
+import java.util.Arrays;
+
+/*
+ * A copy of just the parts of the game world needed to draw it: where everything is and what type it
+ * is. The update thread fills one of these in after every update, and the drawing thread draws from it,
+ * so drawing never has to look at the real game world while it's in the middle of being updated.
+ * See RenderSnapshotBuffer for how they get passed between the threads.
+ */
+public class RenderSnapshot {
+    // how many objects are in the snapshot. they're in the order they should be drawn in
+    public int count = 0;
+    // the type of each object, as its id in the game's Archetypes
+    public byte[] type = new byte[256];
+    // where each object is now, and where it was at the previous update (see Game.draw)
+    public float[] x = new float[256];
+    public float[] y = new float[256];
+    public float[] previousX = new float[256];
+    public float[] previousY = new float[256];
+
+    // the size of the screen the game world was updated for
+    public int screenWidth;
+    public int screenHeight;
+    // when this snapshot was published (from System.nanoTime), and how long an update is, which
+    // lets the drawing thread work out how far it is between this update and the next one
+    public long publishedAtNanoseconds;
+    public long nanosecondsPerTick;
+
+    // used by addAll() to keep track of where the next object of each type goes
+    private final int[] nextIndexOfType = new int[Archetypes.MAX_TYPES];
+
+    // set while the snapshot is waiting to be drawn, and cleared once the drawing thread takes it
+    boolean fresh = false;
+
+    public void clear() {
+        this.count = 0;
+    }
+
+    public void add(int type, double x, double y, double previousX, double previousY) {
+        if (this.count == this.type.length) {
+            this.grow();
+        }
+        int i = this.count++;
+        this.type[i] = (byte) type;
+        this.x[i] = (float) x;
+        this.y[i] = (float) y;
+        this.previousX[i] = (float) previousX;
+        this.previousY[i] = (float) previousY;
+    }
+
+    // add all the objects in a store, grouped by type, so all the objects of each type get drawn one
+    // after the other
+    public void addAll(EntityStore store) {
+        while (this.count + store.liveCount > this.type.length) {
+            this.grow();
+        }
+        // work out where each type's group starts, from how many of each type there are ('counting sort')
+        int[] nextIndexOfType = this.nextIndexOfType;
+        int groupStart = this.count;
+        for (int t = 0; t < store.liveCountByType.length; t++) {
+            nextIndexOfType[t] = groupStart;
+            groupStart += store.liveCountByType[t];
+        }
+        for (int slot = 0; slot < store.size; slot++) {
+            if (store.alive[slot]) {
+                byte type = store.type[slot];
+                int i = nextIndexOfType[type]++;
+                this.type[i] = type;
+                this.x[i] = (float) store.x[slot];
+                this.y[i] = (float) store.y[slot];
+                this.previousX[i] = (float) store.previousX[slot];
+                this.previousY[i] = (float) store.previousY[slot];
+            }
+        }
+        this.count += store.liveCount;
+    }
+
+    // how far we are between the update this snapshot came from and the next one (0 to 1), if it's
+    // being drawn at the given time
+    public double getInterpolationAlpha(long nowInNanoseconds) {
+        if (this.nanosecondsPerTick <= 0) {
+            return 1;
+        }
+        double alpha = (double) (nowInNanoseconds - this.publishedAtNanoseconds) / this.nanosecondsPerTick;
+        return Utils.clamp(alpha, 0, 1);
+    }
+
+    private void grow() {
+        int newCapacity = this.type.length * 2;
+        this.type = Arrays.copyOf(this.type, newCapacity);
+        this.x = Arrays.copyOf(this.x, newCapacity);
+        this.y = Arrays.copyOf(this.y, newCapacity);
+        this.previousX = Arrays.copyOf(this.previousX, newCapacity);
+        this.previousY = Arrays.copyOf(this.previousY, newCapacity);
+    }
+}
@@ -0,0 +1,47 @@
+package jspace;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Passes RenderSnapshots from the update thread to the drawing thread without either of them ever
+ * having to wait for the other ('triple buffering').
+ *
+ * There are three snapshots. At any time the update thread owns one (which it's filling in), the
+ * drawing thread owns one (which it's drawing), and the third is the most recently published one,
+ * sitting in the middle waiting to be picked up. Handing a snapshot over is just swapping it with
+ * the one in the middle, which is a single atomic operation, so no locks are needed and neither
+ * thread ever sees a snapshot that the other one is still using.
+ */
+public class RenderSnapshotBuffer {
+    // the snapshot the update thread is filling in. only the update thread touches this
+    private RenderSnapshot writing = new RenderSnapshot();
+    // the most recently published snapshot
+    private final AtomicReference<RenderSnapshot> published = new AtomicReference<RenderSnapshot>(new RenderSnapshot());
+    // the snapshot the drawing thread is drawing. only the drawing thread touches this
+    private RenderSnapshot reading = new RenderSnapshot();
+
+    // update thread: get the snapshot to fill in. call publish() once it's filled in
+    public RenderSnapshot getSnapshotToWrite() {
+        return this.writing;
+    }
+
+    // update thread: make the snapshot from getSnapshotToWrite() available for drawing
+    public void publish() {
+        this.writing.fresh = true;
+        // we get back whichever snapshot was in the middle. either it was never drawn (so it's out
+        // of date now anyway) or the drawing thread has finished with it
+        this.writing = this.published.getAndSet(this.writing);
+    }
+
+    // drawing thread: get the most recently published snapshot. if nothing new has been published
+    // since last time, this is the same one as last time
+    public RenderSnapshot getLatest() {
+        if (this.published.get().fresh) {
+            // the update thread might publish again in between these two lines, in which case we
+            // just get that one instead, which is even more up to date
+            this.reading = this.published.getAndSet(this.reading);
+            this.reading.fresh = false;
+        }
+        return this.reading;
+    }
+}
@@ -0,0 +1,50 @@
+package jspace;
+
+import java.util.Random;
+
+/*
+ * A java.util.Random whose state can be saved and put back, so a game restored from a snapshot (see
+ * Game.writeState) carries on getting the same random numbers it would have. java.util.Random keeps its
+ * state private, so this keeps its own copy and does the same sums, which gives exactly the same numbers
+ * as java.util.Random for the same seed. Only next() and setSeed() need replacing, because all the other
+ * methods (nextDouble, nextInt and so on) are built on top of next().
+ *
+ * The one exception is nextGaussian(), which makes two numbers at a time and keeps the second one back
+ * in a field we can't see. The game doesn't use it.
+ */
+public class RestorableRandom extends Random {
+    private static final long MULTIPLIER = 0x5DEECE66DL;
+    private static final long ADDEND = 0xBL;
+    private static final long MASK = (1L << 48) - 1;
+
+    // (not given a value here, because Random's constructor calls setSeed before this class's fields
+    // would get set, and that would overwrite it)
+    private long state;
+
+    public RestorableRandom() {
+        super();
+    }
+
+    public RestorableRandom(long seed) {
+        super(seed);
+    }
+
+    @Override
+    public synchronized void setSeed(long seed) {
+        this.state = (seed ^ MULTIPLIER) & MASK;
+    }
+
+    @Override
+    protected int next(int bits) {
+        this.state = (this.state * MULTIPLIER + ADDEND) & MASK;
+        return (int) (this.state >>> (48 - bits));
+    }
+
+    public long getState() {
+        return this.state;
+    }
+
+    public void setState(long state) {
+        this.state = state & MASK;
+    }
+}
@@ -0,0 +1,259 @@
+package jspace;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/*
+ * Keeps snapshots of the game world from the last few seconds (see Game.writeState), so the game can be
+ * rewound to any of them straight away, or they can all be saved to a file when the player dies to look
+ * at what went wrong afterwards (see Headless --restore).
+ *
+ * The snapshots all go in one big buffer, one after the other, going back to the start when they get to
+ * the end and writing over the oldest ones ('ring buffer'). Snapshots are different sizes, depending on
+ * how much is in the world, so the offset and length of each one is kept in another, much smaller, ring.
+ * Nothing gets allocated when taking a snapshot.
+ *
+ * The buffer is a direct ByteBuffer (outside the Java heap, so the garbage collector never has to look at
+ * it), in little endian order, which is what most computers use, so EntityStore.writeState can copy
+ * whole arrays into it without swapping any bytes. It can also be a file mapped into memory instead, for
+ * rewinding further back than there's memory for. The operating system then writes it to disk whenever
+ * it likes, without the game having to wait.
+ *
+ * A dump file is: int DUMP_MAGIC, int count, then for each snapshot from oldest to newest: long tick,
+ * int length, and the snapshot itself.
+ */
+public class RewindBuffer {
+    static final int DUMP_MAGIC = 0x4a535244; // "JSRD"
+
+    private final ByteBuffer buffer;
+    // the snapshots, oldest first, as a ring of up to maxSnapshots: snapshot i (0 is the oldest) is at
+    // index (first + i) % maxSnapshots
+    private final int maxSnapshots;
+    private final int[] offset;
+    private final int[] length;
+    private final long[] tick;
+    private int first = 0;
+    private int count = 0;
+    // where the next snapshot goes in the buffer
+    private int writePosition = 0;
+    // how many times capture() has been called, which is the tick number if it's called every tick
+    private long ticks = 0;
+
+    // if this is set, all the snapshots get saved into this directory when the player dies (see
+    // setDeathDumpDirectory)
+    private String deathDumpDirectory;
+    // how many snapshots were too big to fit in the buffer at all
+    public long snapshotsTooBig = 0;
+
+    // the most memory the snapshots can take up, because a ByteBuffer can't be any bigger than this
+    public static final int MAX_MEGABYTES = 2047;
+
+    // keep up to maxSnapshots snapshots, in up to capacityMegabytes of memory (the oldest ones get dropped
+    // if they don't all fit). if mappedFilePath is set, the snapshots are kept in that file, mapped into
+    // memory
+    public RewindBuffer(int maxSnapshots, int capacityMegabytes, String mappedFilePath) throws IOException {
+        if (capacityMegabytes <= 0 || capacityMegabytes > MAX_MEGABYTES) {
+            throw new IllegalArgumentException(
+                "the rewind buffer has to be between 1 and " + MAX_MEGABYTES + " MB, not " + capacityMegabytes
+            );
+        }
+        if (maxSnapshots <= 0) {
+            throw new IllegalArgumentException("the rewind buffer has to keep at least one snapshot");
+        }
+        int capacityBytes = (int) Math.min(Integer.MAX_VALUE, (long) capacityMegabytes << 20);
+        this.maxSnapshots = maxSnapshots;
+        this.offset = new int[maxSnapshots];
+        this.length = new int[maxSnapshots];
+        this.tick = new long[maxSnapshots];
+        if (mappedFilePath != null) {
+            RandomAccessFile file = new RandomAccessFile(mappedFilePath, "rw");
+            try {
+                // the mapping keeps working after the file is closed
+                this.buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+            } finally {
+                file.close();
+            }
+        } else {
+            this.buffer = ByteBuffer.allocateDirect(capacityBytes);
+        }
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    // how many snapshots there are to rewind to
+    public int size() {
+        return this.count;
+    }
+
+    // the tick (see capture) the snapshot from this many snapshots ago was taken after. 0 is the newest
+    public long getTick(int snapshotsBack) {
+        return this.tick[this.indexOf(this.count - 1 - snapshotsBack)];
+    }
+
+    // take a snapshot of the game, writing over the oldest ones if there isn't room. Game.update calls
+    // this at the end of every tick
+    public void capture(Game game) {
+        this.ticks++;
+        int size = game.getStateSize();
+        int capacity = this.buffer.capacity();
+        if (size > capacity) {
+            this.snapshotsTooBig++;
+            return;
+        }
+        int start = this.writePosition;
+        if (start + size > capacity) {
+            // not enough room before the end, so go back to the start. any snapshots between here and the
+            // end are older than the ones at the start, so they go first
+            while (this.count > 0 && this.offset[this.first] >= start) {
+                this.dropOldest();
+            }
+            start = 0;
+        }
+        // make room, both in the ring of snapshots and in the buffer
+        while (this.count > 0 && (this.count == this.maxSnapshots || this.oldestOverlaps(start, size))) {
+            this.dropOldest();
+        }
+
+        this.buffer.limit(start + size);
+        this.buffer.position(start);
+        game.writeState(this.buffer);
+        this.buffer.clear();
+
+        int index = this.indexOf(this.count++);
+        this.offset[index] = start;
+        this.length[index] = size;
+        this.tick[index] = this.ticks;
+        this.writePosition = start + size;
+    }
+
+    // put the game back how it was the given number of snapshots ago (0 is the newest), and forget about
+    // the snapshots after that one, so the game carries on from there. returns false if there aren't that
+    // many snapshots
+    public boolean rewind(Game game, int snapshotsBack) {
+        if (snapshotsBack < 0 || snapshotsBack >= this.count) {
+            return false;
+        }
+        int index = this.indexOf(this.count - 1 - snapshotsBack);
+        this.buffer.limit(this.offset[index] + this.length[index]);
+        this.buffer.position(this.offset[index]);
+        game.readState(this.buffer);
+        this.buffer.clear();
+        this.count -= snapshotsBack;
+        this.writePosition = this.offset[index] + this.length[index];
+        this.ticks = this.tick[index];
+        return true;
+    }
+
+    // save all the snapshots into directory every time the player dies, making the directory if it isn't
+    // there. null turns it off
+    public void setDeathDumpDirectory(String directory) throws IOException {
+        if (directory != null) {
+            Files.createDirectories(Paths.get(directory));
+        }
+        this.deathDumpDirectory = directory;
+    }
+
+    // Game.destroyPlayer calls this, before the world gets reset. writing tens of megabytes to disk would
+    // hold up the game, so the snapshots just get copied here, and saved on another thread
+    void playerDestroyed() {
+        if (this.deathDumpDirectory == null || this.count == 0) {
+            return;
+        }
+        final String path = Paths.get(this.deathDumpDirectory, "death-" + this.ticks + ".rewind").toString();
+        final ByteBuffer dump = this.copyDump();
+        final int count = this.count;
+        // not a daemon thread, so the JVM waits for it to finish before exiting
+        new Thread("rewind dump") {
+            public void run() {
+                try {
+                    writeDump(path, dump);
+                    System.out.println("saved the last " + count + " snapshots to " + path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }.start();
+    }
+
+    // save all the snapshots to a file (see the top for what's in it)
+    public void dump(String path) throws IOException {
+        writeDump(path, this.copyDump());
+    }
+
+    // everything that goes in a dump file, copied out of the buffer
+    private ByteBuffer copyDump() {
+        long size = 8;
+        for (int i = 0; i < this.count; i++) {
+            size += 12 + this.length[this.indexOf(i)];
+        }
+        ByteBuffer dump = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        dump.putInt(DUMP_MAGIC).putInt(this.count);
+        for (int i = 0; i < this.count; i++) {
+            int index = this.indexOf(i);
+            dump.putLong(this.tick[index]).putInt(this.length[index]);
+            ByteBuffer snapshot = this.buffer.duplicate();
+            snapshot.limit(this.offset[index] + this.length[index]);
+            snapshot.position(this.offset[index]);
+            dump.put(snapshot);
+        }
+        dump.flip();
+        return dump;
+    }
+
+    private static void writeDump(String path, ByteBuffer dump) throws IOException {
+        FileOutputStream out = new FileOutputStream(path);
+        try {
+            FileChannel channel = out.getChannel();
+            while (dump.hasRemaining()) {
+                channel.write(dump);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    // put the game back how it was in one of the snapshots in a dump file, the given number of snapshots
+    // before the last one (so 0 is the last thing that happened before the player died). returns the tick
+    // the snapshot was taken after
+    public static long restoreFromDump(String path, int snapshotsBack, Game game) throws IOException {
+        ByteBuffer dump = ByteBuffer.wrap(Files.readAllBytes(Paths.get(path))).order(ByteOrder.LITTLE_ENDIAN);
+        if (dump.getInt() != DUMP_MAGIC) {
+            throw new RuntimeException(path + " isn't a rewind dump");
+        }
+        int count = dump.getInt();
+        if (snapshotsBack < 0 || snapshotsBack >= count) {
+            throw new RuntimeException(path + " only has " + count + " snapshots");
+        }
+        // skip the ones before it
+        for (int i = 0; i < count - 1 - snapshotsBack; i++) {
+            dump.getLong();
+            int length = dump.getInt();
+            dump.position(dump.position() + length);
+        }
+        long tick = dump.getLong();
+        int length = dump.getInt();
+        dump.limit(dump.position() + length);
+        game.readState(dump);
+        return tick;
+    }
+
+    private int indexOf(int i) {
+        return (this.first + i) % this.maxSnapshots;
+    }
+
+    private boolean oldestOverlaps(int start, int size) {
+        int oldestStart = this.offset[this.first];
+        return oldestStart < start + size && start < oldestStart + this.length[this.first];
+    }
+
+    private void dropOldest() {
+        this.first = (this.first + 1) % this.maxSnapshots;
+        this.count--;
+    }
+}
+
@@ -0,0 +1,95 @@
+package jspace;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/*
+ * Makes sending packets over loopback behave more like the internet, for trying out NetServer and
+ * NetClient on one computer. Each packet has a chance of being dropped, and the rest get held back for
+ * the latency plus a random amount of jitter before actually being sent. With jitter, packets can end
+ * up being sent in a different order to the one they were given in, like they sometimes are for real.
+ *
+ * This only affects packets going out, so to slow down both directions, both ends need one. With
+ * everything at 0 (see NONE), packets are just sent straight away.
+ */
+public class SimulatedNetwork {
+    public final double latencyMilliseconds;
+    public final double jitterMilliseconds;
+    // the chance of each packet being dropped (0 to 1)
+    public final double lossChance;
+    private final Random random;
+
+    // how many packets have been sent, and how many were dropped on purpose
+    public long packetsSent = 0;
+    public long packetsDropped = 0;
+
+    // the packets being held back, soonest first. the DelayedPackets get reused, so holding packets
+    // back doesn't make any garbage once there are enough of them
+    private final PriorityQueue<DelayedPacket> delayed = new PriorityQueue<DelayedPacket>(64, new Comparator<DelayedPacket>() {
+        public int compare(DelayedPacket a, DelayedPacket b) {
+            return Long.compare(a.sendAtNanoseconds, b.sendAtNanoseconds);
+        }
+    });
+    private final ArrayList<DelayedPacket> spare = new ArrayList<DelayedPacket>();
+    private final ByteBuffer sendBuffer = ByteBuffer.allocate(NetProtocol.MAX_PACKET_SIZE);
+
+    private static class DelayedPacket {
+        final byte[] data = new byte[NetProtocol.MAX_PACKET_SIZE];
+        int length;
+        SocketAddress to;
+        long sendAtNanoseconds;
+    }
+
+    public SimulatedNetwork(double latencyMilliseconds, double jitterMilliseconds, double lossChance, long seed) {
+        this.latencyMilliseconds = latencyMilliseconds;
+        this.jitterMilliseconds = jitterMilliseconds;
+        this.lossChance = lossChance;
+        this.random = new Random(seed);
+    }
+
+    // a real network, with nothing added
+    public static SimulatedNetwork none() {
+        return new SimulatedNetwork(0, 0, 0, 0);
+    }
+
+    // send the packet (from its position to its limit) through the channel, maybe later, or maybe not at all
+    public void send(DatagramChannel channel, ByteBuffer packet, SocketAddress to) throws IOException {
+        if (this.lossChance > 0 && this.random.nextDouble() < this.lossChance) {
+            this.packetsDropped++;
+            return;
+        }
+        if (this.latencyMilliseconds <= 0 && this.jitterMilliseconds <= 0) {
+            channel.send(packet, to);
+            this.packetsSent++;
+            return;
+        }
+        DelayedPacket delayed = this.spare.isEmpty() ? new DelayedPacket() : this.spare.remove(this.spare.size() - 1);
+        delayed.length = packet.remaining();
+        packet.get(delayed.data, 0, delayed.length);
+        delayed.to = to;
+        double delayMilliseconds = this.latencyMilliseconds + this.random.nextDouble() * this.jitterMilliseconds;
+        delayed.sendAtNanoseconds = System.nanoTime() + (long) (delayMilliseconds * 1000000);
+        this.delayed.add(delayed);
+    }
+
+    // send any held back packets whose time has come. this needs calling often, eg. every tick
+    public void flush(DatagramChannel channel) throws IOException {
+        long now = System.nanoTime();
+        while (!this.delayed.isEmpty() && this.delayed.peek().sendAtNanoseconds <= now) {
+            DelayedPacket delayed = this.delayed.poll();
+            this.sendBuffer.clear();
+            this.sendBuffer.put(delayed.data, 0, delayed.length);
+            this.sendBuffer.flip();
+            channel.send(this.sendBuffer, delayed.to);
+            this.packetsSent++;
+            delayed.to = null;
+            this.spare.add(delayed);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package jspace;
+
+import java.util.Arrays;
+
+/*
+ * A list of EntityStore slot numbers which gets reused every tick, eg. the enemies which home in on the
+ * player (see Game.updateEnemies). Like SpatialGrid.QueryResults, it's just an array and a count, so
+ * adding to it doesn't make any garbage once the array is big enough.
+ */
+public class SlotList {
+    public int[] slots = new int[64];
+    public int count = 0;
+
+    public void clear() {
+        this.count = 0;
+    }
+
+    public void add(int slot) {
+        if (this.count == this.slots.length) {
+            this.slots = Arrays.copyOf(this.slots, this.count * 2);
+        }
+        this.slots[this.count++] = slot;
+    }
+}
@@ -0,0 +1,278 @@
+package jspace;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/*
+ * Draws a RenderSnapshot without Java2D, by copying each sprite's pixels out of the SpriteAtlas straight
+ * into the int[] pixels of a BufferedImage, which then gets drawn onto the screen in one go (see
+ * Game.softwareRenderer). Java2D has to work out how to draw every single sprite it's asked to, which adds
+ * up with thousands of them, and without a graphics card to do the work it all happens on one thread.
+ *
+ * The screen is split into TILE_SIZE squares ('tiles'), and each tile gets a list of the objects which
+ * overlap it, in the order they're drawn in. The tiles can then all be drawn at the same time on different
+ * threads (on a ForkJoinPool), without any two threads ever writing to the same pixel. Each tile clears
+ * itself and draws its objects, cut off at its edges.
+ *
+ * Most sprites have pixels which are either completely solid or completely see-through, so they're just
+ * copied, skipping the see-through ones. Sprites with anything in between get blended with what's under
+ * them, with exactly the same sums (and rounding) Java2D uses, so the picture comes out exactly the same
+ * as Game.draw drawing with Java2D into a TYPE_INT_RGB image.
+ */
+public class SoftwareRenderer {
+    static final int TILE_SIZE = 64;
+    // the black void of space, as Java2D's fillRect leaves it in a TYPE_INT_RGB image
+    static final int BACKGROUND = 0xff000000;
+
+    // MUL8[a * 256 + b] is a * b / 255, rounded the same way as Java2D's mul8table (see blend)
+    private static final int[] MUL8 = new int[256 * 256];
+    static {
+        for (int a = 1; a < 256; a++) {
+            int increment = a * 0x010101;
+            int value = increment + (1 << 23);
+            for (int b = 1; b < 256; b++) {
+                MUL8[a * 256 + b] = value >>> 24;
+                value += increment;
+            }
+        }
+    }
+
+    // the threads the tiles are drawn on. if this is null it uses ForkJoinPool.commonPool()
+    public ForkJoinPool pool = null;
+    // when this is false, the tiles are drawn one after the other on the calling thread
+    public boolean useParallel = true;
+
+    // the picture, and its pixels as RGB. the top byte of each pixel is ignored, but it's filled in the
+    // same as Java2D would, so the two come out exactly the same: 0xff where the background is, and 0
+    // where a sprite got drawn
+    private BufferedImage frame;
+    private int[] framePixels;
+    private int width = 0;
+    private int height = 0;
+    private Tile[] tiles = new Tile[0];
+    private int tilesAcross = 0;
+    private final RunAllTiles runAllTiles = new RunAllTiles();
+
+    // what's being drawn, for the tiles to read
+    private SpriteAtlas spriteAtlas;
+    private byte[] type;
+    // the top left corner of each object in the snapshot, on the screen
+    private int[] left = new int[256];
+    private int[] top = new int[256];
+
+    // how many objects the last draw() drew, and how many were completely off the screen
+    public int drawn = 0;
+    public int culled = 0;
+
+    // draw the snapshot, alpha of the way between its previous and current positions (see Game.draw), and
+    // return the picture. the same image gets drawn into every time, unless the screen changes size
+    public BufferedImage draw(RenderSnapshot snapshot, double alpha, SpriteAtlas spriteAtlas) {
+        this.resize(snapshot.screenWidth, snapshot.screenHeight);
+        this.spriteAtlas = spriteAtlas;
+        this.type = snapshot.type;
+        this.sortIntoTiles(snapshot, alpha);
+
+        if (this.useParallel && this.tiles.length > 1) {
+            ForkJoinPool pool = this.pool != null ? this.pool : ForkJoinPool.commonPool();
+            for (Tile tile : this.tiles) {
+                tile.reinitialize();
+            }
+            this.runAllTiles.reinitialize();
+            pool.invoke(this.runAllTiles);
+        } else {
+            for (Tile tile : this.tiles) {
+                tile.compute();
+            }
+        }
+        return this.frame;
+    }
+
+    // make a new image (and tiles) if the screen has changed size
+    private void resize(int width, int height) {
+        width = Math.max(1, width);
+        height = Math.max(1, height);
+        if (width == this.width && height == this.height) {
+            return;
+        }
+        this.width = width;
+        this.height = height;
+        this.frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        this.framePixels = ((DataBufferInt) this.frame.getRaster().getDataBuffer()).getData();
+        this.tilesAcross = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int tilesDown = (height + TILE_SIZE - 1) / TILE_SIZE;
+        this.tiles = new Tile[this.tilesAcross * tilesDown];
+        for (int ty = 0; ty < tilesDown; ty++) {
+            for (int tx = 0; tx < this.tilesAcross; tx++) {
+                int left = tx * TILE_SIZE;
+                int top = ty * TILE_SIZE;
+                this.tiles[ty * this.tilesAcross + tx] = new Tile(
+                    left, top, Math.min(width, left + TILE_SIZE), Math.min(height, top + TILE_SIZE)
+                );
+            }
+        }
+    }
+
+    // work out where each object goes on the screen, and add it to the list of every tile it overlaps
+    private void sortIntoTiles(RenderSnapshot snapshot, double alpha) {
+        if (this.left.length < snapshot.count) {
+            this.left = Arrays.copyOf(this.left, snapshot.type.length);
+            this.top = Arrays.copyOf(this.top, snapshot.type.length);
+        }
+        for (Tile tile : this.tiles) {
+            tile.count = 0;
+        }
+        SpriteAtlas spriteAtlas = this.spriteAtlas;
+        int screenWidth = this.width;
+        int screenHeight = this.height;
+        int drawn = 0;
+        int culled = 0;
+        for (int i = 0; i < snapshot.count; i++) {
+            int type = snapshot.type[i];
+            int width = spriteAtlas.getWidth(type);
+            int height = spriteAtlas.getHeight(type);
+            // the same sums as Game.draw, so everything ends up in exactly the same place
+            double x = snapshot.previousX[i] + (snapshot.x[i] - snapshot.previousX[i]) * alpha;
+            double y = snapshot.previousY[i] + (snapshot.y[i] - snapshot.previousY[i]) * alpha;
+            int left = SpriteAtlas.getCorner(x, width);
+            int top = SpriteAtlas.getCorner(y, height);
+            if (left >= screenWidth || top >= screenHeight || left + width <= 0 || top + height <= 0) {
+                culled++;
+                continue;
+            }
+            this.left[i] = left;
+            this.top[i] = top;
+            int firstTileX = Math.max(0, left) / TILE_SIZE;
+            int lastTileX = (Math.min(screenWidth, left + width) - 1) / TILE_SIZE;
+            int firstTileY = Math.max(0, top) / TILE_SIZE;
+            int lastTileY = (Math.min(screenHeight, top + height) - 1) / TILE_SIZE;
+            for (int ty = firstTileY; ty <= lastTileY; ty++) {
+                for (int tx = firstTileX; tx <= lastTileX; tx++) {
+                    this.tiles[ty * this.tilesAcross + tx].add(i);
+                }
+            }
+            drawn++;
+        }
+        this.drawn = drawn;
+        this.culled = culled;
+    }
+
+    // one TILE_SIZE square of the screen (smaller at the right and bottom edges), and the objects on it
+    private class Tile extends RecursiveAction {
+        final int left;
+        final int top;
+        final int right;
+        final int bottom;
+        // the snapshot indexes of the objects which overlap this tile, in the order they're drawn in
+        int[] objects = new int[16];
+        int count = 0;
+
+        Tile(int left, int top, int right, int bottom) {
+            this.left = left;
+            this.top = top;
+            this.right = right;
+            this.bottom = bottom;
+        }
+
+        void add(int object) {
+            if (this.count == this.objects.length) {
+                this.objects = Arrays.copyOf(this.objects, this.count * 2);
+            }
+            this.objects[this.count++] = object;
+        }
+
+        protected void compute() {
+            int[] frame = SoftwareRenderer.this.framePixels;
+            int frameWidth = SoftwareRenderer.this.width;
+            for (int y = this.top; y < this.bottom; y++) {
+                Arrays.fill(frame, y * frameWidth + this.left, y * frameWidth + this.right, BACKGROUND);
+            }
+
+            SpriteAtlas spriteAtlas = SoftwareRenderer.this.spriteAtlas;
+            int[] atlas = spriteAtlas.getPixels();
+            int atlasWidth = spriteAtlas.getAtlasWidth();
+            byte[] type = SoftwareRenderer.this.type;
+            int[] objectLeft = SoftwareRenderer.this.left;
+            int[] objectTop = SoftwareRenderer.this.top;
+            for (int i = 0; i < this.count; i++) {
+                int object = this.objects[i];
+                int t = type[object];
+                int spriteLeft = objectLeft[object];
+                int spriteTop = objectTop[object];
+                // the part of the sprite inside this tile
+                int x0 = Math.max(this.left, spriteLeft);
+                int x1 = Math.min(this.right, spriteLeft + spriteAtlas.getWidth(t));
+                int y0 = Math.max(this.top, spriteTop);
+                int y1 = Math.min(this.bottom, spriteTop + spriteAtlas.getHeight(t));
+                // where the top left of that part is in the atlas
+                int sourceX = spriteAtlas.getX(t) + x0 - spriteLeft;
+                int sourceY = spriteAtlas.getY(t) + y0 - spriteTop;
+                if (spriteAtlas.hasPartialAlpha(t)) {
+                    blend(atlas, sourceY * atlasWidth + sourceX, atlasWidth, frame, y0 * frameWidth + x0, frameWidth, x1 - x0, y1 - y0);
+                } else {
+                    copySolid(atlas, sourceY * atlasWidth + sourceX, atlasWidth, frame, y0 * frameWidth + x0, frameWidth, x1 - x0, y1 - y0);
+                }
+            }
+        }
+    }
+
+    private class RunAllTiles extends RecursiveAction {
+        protected void compute() {
+            Tile[] tiles = SoftwareRenderer.this.tiles;
+            // let the other threads take all but the first tile, and do the first one on this thread
+            for (int i = tiles.length - 1; i > 0; i--) {
+                tiles[i].fork();
+            }
+            tiles[0].invoke();
+            for (int i = 1; i < tiles.length; i++) {
+                tiles[i].join();
+            }
+        }
+    }
+
+    // copy a width x height rectangle of pixels, leaving out the see-through ones. this is only used for
+    // sprites which don't have any partly see-through pixels
+    private static void copySolid(int[] source, int sourceStart, int sourceStride, int[] target, int targetStart, int targetStride, int width, int height) {
+        for (int row = 0; row < height; row++) {
+            int s = sourceStart + row * sourceStride;
+            int d = targetStart + row * targetStride;
+            for (int end = s + width; s < end; s++, d++) {
+                int pixel = source[s];
+                if (pixel >>> 24 != 0) {
+                    target[d] = pixel & 0xffffff;
+                }
+            }
+        }
+    }
+
+    // draw a width x height rectangle of pixels on top of what's there, mixing them by their alpha. these
+    // are the same sums as Java2D's SrcOver blit from IntArgb to IntRgb: each color is
+    // mul8(alpha, source) + mul8(255 - alpha, target), where mul8(a, b) is a * b / 255 rounded their way
+    private static void blend(int[] source, int sourceStart, int sourceStride, int[] target, int targetStart, int targetStride, int width, int height) {
+        int[] mul8 = MUL8;
+        for (int row = 0; row < height; row++) {
+            int s = sourceStart + row * sourceStride;
+            int d = targetStart + row * targetStride;
+            for (int end = s + width; s < end; s++, d++) {
+                int pixel = source[s];
+                int alpha = pixel >>> 24;
+                if (alpha == 0) {
+                    continue;
+                }
+                if (alpha == 0xff) {
+                    target[d] = pixel & 0xffffff;
+                    continue;
+                }
+                int under = target[d];
+                int a = alpha << 8;
+                int b = (0xff - alpha) << 8;
+                int red = mul8[a | ((pixel >> 16) & 0xff)] + mul8[b | ((under >> 16) & 0xff)];
+                int green = mul8[a | ((pixel >> 8) & 0xff)] + mul8[b | ((under >> 8) & 0xff)];
+                int blue = mul8[a | (pixel & 0xff)] + mul8[b | (under & 0xff)];
+                target[d] = (red << 16) | (green << 8) | blue;
+            }
+        }
+    }
+}
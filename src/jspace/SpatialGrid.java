@@ -0,0 +1,135 @@
+package jspace;
+
+import java.util.Arrays;
+
+/*
+ * A 'spatial hash': the game world is divided up into square cells, and each object is put into
+ * the cells that its rectangle overlaps. Then to find out what an object might be colliding with,
+ * we only need to look at the other objects in the same cells, instead of every object in the world.
+ *
+ * Objects are identified by an int id (eg. their index in some list) so that the grid doesn't
+ * need to know anything about what kind of objects it's holding.
+ *
+ * Once everything has been inserted, any number of threads can query the grid at the same time, as
+ * long as each one has its own QueryResults.
+ */
+public class SpatialGrid {
+    // how big each cell is (in pixels). should be about the size of the biggest object
+    private final double cellSize;
+    // the cells are hashed into this many buckets. must be a power of 2
+    private static final int BUCKET_COUNT = 4096;
+
+    // the first entry in each bucket, or -1 if the bucket is empty
+    private final int[] bucketHeads = new int[BUCKET_COUNT];
+    // for each entry, the id of the object it refers to
+    private int[] entryIds = new int[256];
+    // for each entry, the next entry in the same bucket, or -1 if it's the last one
+    private int[] entryNext = new int[256];
+    private int entryCount = 0;
+
+    // the ids found by a query
+    public static class QueryResults {
+        public int[] ids = new int[64];
+        public int count = 0;
+    }
+
+    SpatialGrid(double cellSize) {
+        this.cellSize = cellSize;
+        this.clear();
+    }
+
+    // remove everything from the grid. this gets called every tick before re-inserting all the objects
+    public void clear() {
+        Arrays.fill(this.bucketHeads, -1);
+        this.entryCount = 0;
+    }
+
+    // add an object with the given rectangle (x1,y1 is the top left corner, x2,y2 is the bottom right)
+    public void insert(int id, double x1, double y1, double x2, double y2) {
+        int cx1 = this.cellCoord(x1);
+        int cx2 = this.cellCoord(x2);
+        int cy1 = this.cellCoord(y1);
+        int cy2 = this.cellCoord(y2);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                this.addEntry(id, bucketIndex(cx, cy));
+            }
+        }
+    }
+
+    // find the ids of all the objects which share a cell with the given rectangle, and put them in
+    // results, sorted from lowest to highest. returns how many were found.
+    // the objects found might not actually be overlapping the rectangle, they're just nearby.
+    public int query(double x1, double y1, double x2, double y2, QueryResults results) {
+        int[] ids = results.ids;
+        int resultCount = 0;
+
+        int cx1 = this.cellCoord(x1);
+        int cx2 = this.cellCoord(x2);
+        int cy1 = this.cellCoord(y1);
+        int cy2 = this.cellCoord(y2);
+        for (int cy = cy1; cy <= cy2; cy++) {
+            for (int cx = cx1; cx <= cx2; cx++) {
+                int entry = this.bucketHeads[bucketIndex(cx, cy)];
+                while (entry != -1) {
+                    if (resultCount == ids.length) {
+                        ids = Arrays.copyOf(ids, resultCount * 2);
+                        results.ids = ids;
+                    }
+                    ids[resultCount++] = this.entryIds[entry];
+                    entry = this.entryNext[entry];
+                }
+            }
+        }
+
+        // sort the ids so that callers see objects in the same order they were inserted. there's
+        // usually only a handful of them, so a simple insertion sort is fine, but in a crowded part of
+        // the world there can be lots (with duplicates), and Arrays.sort copes better with those
+        if (resultCount > 32) {
+            Arrays.sort(ids, 0, resultCount);
+        } else {
+            for (int i = 1; i < resultCount; i++) {
+                int id = ids[i];
+                int j = i - 1;
+                while (j >= 0 && ids[j] > id) {
+                    ids[j + 1] = ids[j];
+                    j--;
+                }
+                ids[j + 1] = id;
+            }
+        }
+
+        // an object covering more than one cell gets found once for each cell, but after sorting all
+        // the copies are next to each other, so we just keep the first one
+        int uniqueCount = 0;
+        for (int i = 0; i < resultCount; i++) {
+            if (uniqueCount == 0 || ids[uniqueCount - 1] != ids[i]) {
+                ids[uniqueCount++] = ids[i];
+            }
+        }
+        results.count = uniqueCount;
+        return uniqueCount;
+    }
+
+    private void addEntry(int id, int bucket) {
+        if (this.entryCount == this.entryIds.length) {
+            this.entryIds = Arrays.copyOf(this.entryIds, this.entryCount * 2);
+            this.entryNext = Arrays.copyOf(this.entryNext, this.entryCount * 2);
+        }
+        this.entryIds[this.entryCount] = id;
+        this.entryNext[this.entryCount] = this.bucketHeads[bucket];
+        this.bucketHeads[bucket] = this.entryCount;
+        this.entryCount++;
+    }
+
+    private int cellCoord(double position) {
+        return (int) Math.floor(position / this.cellSize);
+    }
+
+    // mix the cell coordinates together into a bucket index. different cells can end up in the same
+    // bucket, which just means a few extra objects get returned from query()
+    private static int bucketIndex(int cx, int cy) {
+        int hash = cx * 73856093 ^ cy * 19349663;
+        return hash & (BUCKET_COUNT - 1);
+    }
+}
@@ -0,0 +1,126 @@
+package jspace;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/*
+ * All the sprites packed side by side into one big image (a 'texture atlas'). Drawing every sprite
+ * from the same image lets Java2D keep that one image on the graphics card and draw from it over
+ * and over, instead of switching between lots of little images.
+ */
+public class SpriteAtlas {
+    // the big image with all the sprites in it
+    private BufferedImage atlas;
+    // where each sprite is in the atlas, indexed by type id
+    private final int[] spriteX;
+    private final int[] spriteY;
+    private final int[] spriteWidth;
+    private final int[] spriteHeight;
+    // the atlas's pixels as non-premultiplied ARGB, a row at a time, for SoftwareRenderer to copy from
+    private final int[] pixels;
+    private final int atlasWidth;
+    // whether each sprite has any pixels which are neither completely solid nor completely see-through,
+    // which have to be blended with what's under them
+    private final boolean[] hasPartialAlpha;
+
+    // space left between sprites, so there's no chance of one bleeding into the next
+    private static final int PADDING = 1;
+
+    // images has the image for each type id
+    SpriteAtlas(BufferedImage[] images) {
+        this.spriteX = new int[images.length];
+        this.spriteY = new int[images.length];
+        this.spriteWidth = new int[images.length];
+        this.spriteHeight = new int[images.length];
+        this.hasPartialAlpha = new boolean[images.length];
+        int atlasWidth = 0;
+        int atlasHeight = 0;
+        for (BufferedImage image : images) {
+            atlasWidth += image.getWidth() + PADDING;
+            atlasHeight = Math.max(atlasHeight, image.getHeight());
+        }
+
+        this.atlas = Utils.createCompatibleImage(atlasWidth, atlasHeight);
+        Graphics2D g = this.atlas.createGraphics();
+        // copy the sprites in exactly, including their transparent parts
+        g.setComposite(AlphaComposite.Src);
+        int x = 0;
+        for (int type = 0; type < images.length; type++) {
+            BufferedImage image = images[type];
+            g.drawImage(image, x, 0, null);
+            this.spriteX[type] = x;
+            this.spriteY[type] = 0;
+            this.spriteWidth[type] = image.getWidth();
+            this.spriteHeight[type] = image.getHeight();
+            x += image.getWidth() + PADDING;
+        }
+        g.dispose();
+
+        this.atlasWidth = atlasWidth;
+        this.pixels = this.atlas.getRGB(0, 0, atlasWidth, atlasHeight, null, 0, atlasWidth);
+        for (int type = 0; type < images.length; type++) {
+            for (int row = 0; row < this.spriteHeight[type]; row++) {
+                int start = (this.spriteY[type] + row) * atlasWidth + this.spriteX[type];
+                for (int i = start; i < start + this.spriteWidth[type]; i++) {
+                    int alpha = this.pixels[i] >>> 24;
+                    if (alpha != 0 && alpha != 0xff) {
+                        this.hasPartialAlpha[type] = true;
+                    }
+                }
+            }
+        }
+    }
+
+    public int getWidth(int type) {
+        return this.spriteWidth[type];
+    }
+
+    public int getHeight(int type) {
+        return this.spriteHeight[type];
+    }
+
+    // where the sprite is in getPixels()
+    public int getX(int type) {
+        return this.spriteX[type];
+    }
+
+    public int getY(int type) {
+        return this.spriteY[type];
+    }
+
+    // the whole atlas, as non-premultiplied ARGB, getAtlasWidth() pixels to a row. don't change it
+    public int[] getPixels() {
+        return this.pixels;
+    }
+
+    public int getAtlasWidth() {
+        return this.atlasWidth;
+    }
+
+    public boolean hasPartialAlpha(int type) {
+        return this.hasPartialAlpha[type];
+    }
+
+    // the left (or top) edge of a sprite size pixels across (or down) whose middle is at center, in whole
+    // pixels. everything that needs to know which pixels a sprite covers uses this, so collisions (see
+    // Hitboxes.pixelsOverlap) line up exactly with what's drawn
+    public static int getCorner(double center, int size) {
+        return (int) (center - size / 2);
+    }
+
+    // draw the sprite for the given type id with its top left corner at left,top
+    public void draw(Graphics g, int type, int left, int top) {
+        int width = this.spriteWidth[type];
+        int height = this.spriteHeight[type];
+        int sourceX = this.spriteX[type];
+        int sourceY = this.spriteY[type];
+        g.drawImage(
+            this.atlas,
+            left, top, left + width, top + height,
+            sourceX, sourceY, sourceX + width, sourceY + height,
+            null
+        );
+    }
+}
@@ -0,0 +1,329 @@
+package jspace;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/*
+ * Loads the sprites for GameAssets. Decoding PNGs is most of the time it takes the game to start, so the
+ * images are all loaded at the same time, one per thread (on ForkJoinPool.commonPool()), and each one is
+ * converted to the screen's pixel format on the same thread it was decoded on.
+ *
+ * The decoded pixels are also saved in a cache file, so the next time the game starts it can skip decoding
+ * altogether. The cache file is mapped into memory, and each sprite's pixels are copied straight out of it
+ * into the image. Each sprite in the cache remembers a hash of the image file it came from, and if the
+ * file has changed since, it gets decoded again and the cache gets rewritten. If the cache can't be read
+ * or written for some reason it's just ignored (with a warning), and the images get decoded as usual.
+ *
+ * If any of the images can't be loaded, load() throws an exception listing all of them, rather than
+ * stopping at the first one.
+ *
+ * The cache file is little endian: int CACHE_MAGIC, int CACHE_VERSION, int count, then for each sprite:
+ * short path length, the path (UTF-8), long hash, int width, int height, int offset (in bytes, from the
+ * start of the file, of its pixels). After that are all the pixels, one int each, as non-premultiplied
+ * ARGB, a row at a time.
+ */
+public class SpriteLoader {
+    // where GameAssets keeps the cache, unless it's told otherwise
+    public static final String DEFAULT_CACHE_PATH = "sprites.cache";
+    static final int CACHE_MAGIC = 0x4a535343; // "JSSC"
+    static final int CACHE_VERSION = 1;
+
+    // if this is null the sprites don't get cached
+    private final String cachePath;
+
+    // how the last load() went
+    public int spritesFromCache = 0;
+    public int spritesDecoded = 0;
+    public long loadNanoseconds = 0;
+
+    public SpriteLoader(String cachePath) {
+        this.cachePath = cachePath;
+    }
+
+    // load the image at each path (see the top), in the screen's pixel format
+    public BufferedImage[] load(String[] paths) {
+        long startTime = System.nanoTime();
+        // lots of types can use the same image, and it only needs loading once
+        HashMap<String, LoadSprite> tasksByPath = new HashMap<String, LoadSprite>();
+        ArrayList<LoadSprite> tasks = new ArrayList<LoadSprite>();
+        for (String path : paths) {
+            if (!tasksByPath.containsKey(path)) {
+                LoadSprite task = new LoadSprite(path);
+                tasksByPath.put(path, task);
+                tasks.add(task);
+            }
+        }
+
+        CachedSprites cache = this.cachePath != null ? readCache(this.cachePath) : null;
+        for (LoadSprite task : tasks) {
+            task.cache = cache;
+        }
+        ForkJoinPool.commonPool().invoke(new LoadAll(tasks));
+
+        StringBuilder errors = new StringBuilder();
+        int errorCount = 0;
+        this.spritesFromCache = 0;
+        this.spritesDecoded = 0;
+        for (LoadSprite task : tasks) {
+            if (task.error != null) {
+                errors.append("\n  ").append(task.path).append(": ").append(task.error);
+                errorCount++;
+            } else if (task.fromCache) {
+                this.spritesFromCache++;
+            } else {
+                this.spritesDecoded++;
+            }
+        }
+        if (errorCount > 0) {
+            throw new RuntimeException("couldn't load " + errorCount + (errorCount == 1 ? " image:" : " images:") + errors);
+        }
+        if (this.cachePath != null && this.spritesDecoded > 0) {
+            try {
+                writeCache(this.cachePath, tasks);
+            } catch (IOException e) {
+                System.err.println("couldn't save the sprite cache " + this.cachePath + ": " + e);
+            }
+        }
+
+        BufferedImage[] images = new BufferedImage[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            images[i] = tasksByPath.get(paths[i]).image;
+        }
+        this.loadNanoseconds = System.nanoTime() - startTime;
+        return images;
+    }
+
+    // eg. "7 sprites in 12.3 ms (7 from the cache, 0 decoded)"
+    public String getSummary() {
+        return String.format(
+            "%d sprites in %.1f ms (%d from the cache, %d decoded)",
+            this.spritesFromCache + this.spritesDecoded, this.loadNanoseconds / 1e6, this.spritesFromCache, this.spritesDecoded
+        );
+    }
+
+    // loads one image, from the cache if it's there and up to date, otherwise from its file
+    private static class LoadSprite extends RecursiveAction {
+        final String path;
+        CachedSprites cache;
+        // what it loaded: the pixels as they'd go in the cache, and the image made from them
+        long hash;
+        int width;
+        int height;
+        int[] pixels;
+        boolean fromCache;
+        BufferedImage image;
+        // if it couldn't be loaded, why not
+        String error;
+
+        LoadSprite(String path) {
+            this.path = path;
+        }
+
+        protected void compute() {
+            try {
+                byte[] file = Files.readAllBytes(Paths.get(this.path));
+                this.hash = hash(file);
+                if (this.cache != null && this.cache.get(this.path, this.hash, this)) {
+                    this.fromCache = true;
+                } else {
+                    BufferedImage decoded = ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(file)));
+                    if (decoded == null) {
+                        this.error = "not an image file Java knows how to read";
+                        return;
+                    }
+                    this.width = decoded.getWidth();
+                    this.height = decoded.getHeight();
+                    this.pixels = decoded.getRGB(0, 0, this.width, this.height, null, 0, this.width);
+                }
+                this.image = Utils.toCompatibleImage(wrapPixels(this.pixels, this.width, this.height));
+            } catch (IOException e) {
+                this.error = e.toString();
+            } catch (RuntimeException e) {
+                // eg. a broken PNG can make the decoder throw pretty much anything
+                this.error = e.toString();
+            }
+        }
+    }
+
+    private static class LoadAll extends RecursiveAction {
+        private final ArrayList<LoadSprite> tasks;
+
+        LoadAll(ArrayList<LoadSprite> tasks) {
+            this.tasks = tasks;
+        }
+
+        protected void compute() {
+            invokeAll(this.tasks);
+        }
+    }
+
+    // the sprites in a cache file, mapped into memory
+    private static class CachedSprites {
+        final IntBuffer pixels;
+        final HashMap<String, Integer> indexByPath = new HashMap<String, Integer>();
+        final long[] hash;
+        final int[] width;
+        final int[] height;
+        final int[] offset;
+
+        CachedSprites(ByteBuffer file) {
+            if (file.getInt() != CACHE_MAGIC || file.getInt() != CACHE_VERSION) {
+                throw new IllegalArgumentException("not a sprite cache, or an old one");
+            }
+            int count = file.getInt();
+            this.hash = new long[count];
+            this.width = new int[count];
+            this.height = new int[count];
+            this.offset = new int[count];
+            for (int i = 0; i < count; i++) {
+                byte[] path = new byte[file.getShort()];
+                file.get(path);
+                this.indexByPath.put(new String(path, StandardCharsets.UTF_8), i);
+                this.hash[i] = file.getLong();
+                this.width[i] = file.getInt();
+                this.height[i] = file.getInt();
+                this.offset[i] = file.getInt();
+                // checked here, so a broken cache just doesn't get used, instead of making get() (and so
+                // the whole load) fail later on
+                if (this.width[i] <= 0 || this.height[i] <= 0) {
+                    throw new IllegalArgumentException("sprite " + i + " is " + this.width[i] + "x" + this.height[i]);
+                }
+                if (this.offset[i] < 0 || this.offset[i] % 4 != 0
+                    || (long) this.offset[i] + 4L * this.width[i] * this.height[i] > file.limit()) {
+                    throw new IllegalArgumentException("sprite " + i + " goes off the end of the file");
+                }
+            }
+            file.clear();
+            this.pixels = file.asIntBuffer();
+        }
+
+        // if the cache has the image at this path, and it hasn't changed, copy it into sprite
+        boolean get(String path, long hash, LoadSprite sprite) {
+            Integer index = this.indexByPath.get(path);
+            if (index == null || this.hash[index] != hash) {
+                return false;
+            }
+            sprite.width = this.width[index];
+            sprite.height = this.height[index];
+            sprite.pixels = new int[sprite.width * sprite.height];
+            // each thread gets its own view of the buffer, because they each need their own position
+            IntBuffer pixels = this.pixels.duplicate();
+            pixels.position(this.offset[index] / 4);
+            pixels.get(sprite.pixels);
+            return true;
+        }
+    }
+
+    // the cache file, or null if there isn't one (or it's no good)
+    private static CachedSprites readCache(String path) {
+        if (!Files.exists(Paths.get(path))) {
+            return null;
+        }
+        try {
+            RandomAccessFile file = new RandomAccessFile(path, "r");
+            try {
+                // the mapping keeps working after the file is closed
+                ByteBuffer mapped = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+                return new CachedSprites(mapped.order(ByteOrder.LITTLE_ENDIAN));
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            System.err.println("couldn't read the sprite cache " + path + ", so not using it: " + e);
+        } catch (RuntimeException e) {
+            System.err.println("couldn't read the sprite cache " + path + ", so not using it: " + e);
+        }
+        return null;
+    }
+
+    // save all the sprites into the cache file (see the top for what goes in it)
+    private static void writeCache(String path, ArrayList<LoadSprite> sprites) throws IOException {
+        int indexSize = 12;
+        for (LoadSprite sprite : sprites) {
+            indexSize += 2 + sprite.path.getBytes(StandardCharsets.UTF_8).length + 8 + 4 + 4 + 4;
+        }
+        // the pixels start on a multiple of 4 bytes, so they can be read as ints
+        int pixelStart = (indexSize + 3) & ~3;
+        long size = pixelStart;
+        for (LoadSprite sprite : sprites) {
+            size += 4L * sprite.pixels.length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("the sprites are too big to cache");
+        }
+
+        ByteBuffer data = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        data.putInt(CACHE_MAGIC).putInt(CACHE_VERSION).putInt(sprites.size());
+        int offset = pixelStart;
+        for (LoadSprite sprite : sprites) {
+            byte[] spritePath = sprite.path.getBytes(StandardCharsets.UTF_8);
+            data.putShort((short) spritePath.length).put(spritePath);
+            data.putLong(sprite.hash).putInt(sprite.width).putInt(sprite.height).putInt(offset);
+            offset += 4 * sprite.pixels.length;
+        }
+        data.position(pixelStart);
+        IntBuffer pixels = data.asIntBuffer();
+        for (LoadSprite sprite : sprites) {
+            pixels.put(sprite.pixels);
+        }
+        data.clear();
+
+        // write it next to where it's going and then move it there, so another copy of the game starting at
+        // the same time never sees half a file
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temporary = Files.createTempFile(target.getParent(), "sprites", ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temporary.toFile());
+            try {
+                FileChannel channel = out.getChannel();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static long hash(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        // the length as well, so a file which just happens to have the same CRC still almost certainly doesn't match
+        return ((long) data.length << 32) | crc.getValue();
+    }
+
+    // a non-premultiplied ARGB image which uses pixels as its pixels, without copying them
+    private static BufferedImage wrapPixels(int[] pixels, int width, int height) {
+        DirectColorModel colorModel = new DirectColorModel(32, 0x00ff0000, 0x0000ff00, 0x000000ff, 0xff000000);
+        WritableRaster raster = Raster.createPackedRaster(
+            new DataBufferInt(pixels, pixels.length), width, height, width, colorModel.getMasks(), null
+        );
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+}
@@ -0,0 +1,267 @@
+package jspace;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Keeps track of how long each part ('stage') of updating and drawing the game takes, so we can see
+ * which part is slow. As well as the average over the whole run, it remembers the last WINDOW_SIZE
+ * times of each stage, so it can tell us the median (p50), the 99th percentile (p99: only 1 in 100
+ * runs were slower than this) and the slowest (max) of the recent ones. The p99 and max are usually
+ * what matters for games, because a single slow tick is a visible hitch even if the average is fine.
+ *
+ * It also keeps count of how many of each type of object is in the world, and how many pairs of
+ * objects collision detection checked on the last tick.
+ *
+ * Recording a time doesn't allocate anything, so it's fine to leave on all the time. The stats can
+ * be seen in the game window (press F3, see Main) or over JMX with tools like VisualVM or JDK Mission
+ * Control (see registerWithJmx).
+ */
+public class TickProfiler implements TickProfilerMBean {
+    public enum Stage {
+        removeOutOfBounds,
+        spawning,
+        player,
+        worldObjects,
+        collision,
+        compact,
+        snapshot,
+        // the whole of Game.update, including all of the stages above
+        tick,
+        draw,
+    }
+
+    // Stage.values() makes a new array every time, so we only call it once
+    private static final Stage[] STAGES = Stage.values();
+    // how many of the most recent times of each stage we remember for working out percentiles.
+    // at 60 ticks a second this is the last 10 seconds
+    public static final int WINDOW_SIZE = 600;
+
+    // for each stage, the total time spent in it and how many times it has run
+    private final long[] totalNanoseconds = new long[STAGES.length];
+    private final long[] runCount = new long[STAGES.length];
+    // for each stage, the most recent times it took. recentNanoseconds[stage][nextRecentIndex[stage]] is
+    // the oldest one, which will be overwritten next
+    private final long[][] recentNanoseconds = new long[STAGES.length][WINDOW_SIZE];
+    private final int[] nextRecentIndex = new int[STAGES.length];
+
+    // the name of each type of object (see Archetypes), and how many of each are in the world, indexed
+    // by type id. the game sets the names when it loads its archetypes
+    private String[] objectTypeNames = new String[0];
+    private int[] liveObjectsByType = new int[0];
+    // how many pairs of objects collision detection checked on the last tick
+    private long collisionPairsTested = 0;
+    // how many sprites the last frame drew, and how many it skipped because they were off the screen
+    private int spritesDrawn = 0;
+    private int spritesCulled = 0;
+    // how many sprites have been skipped for being off the screen since the start
+    private long totalSpritesCulled = 0;
+
+    // used for sorting the recent times when working out percentiles, so that doesn't allocate either
+    private final long[] sortScratch = new long[WINDOW_SIZE];
+
+    // record that a stage which started at startTime (from System.nanoTime) has just finished. returns
+    // the current time, so it can be used as the start time of the next stage:
+    //   long time = System.nanoTime();
+    //   doFirstThing();
+    //   time = profiler.record(Stage.first, time);
+    //   doSecondThing();
+    //   time = profiler.record(Stage.second, time);
+    //
+    // each stage should only ever be recorded from one thread (eg. draw from the drawing thread and the
+    // rest from the update thread). reading the stats from another thread is fine, though they might be
+    // slightly out of date
+    public long record(Stage stage, long startTime) {
+        long now = System.nanoTime();
+        int i = stage.ordinal();
+        long nanoseconds = now - startTime;
+        this.totalNanoseconds[i] += nanoseconds;
+        this.runCount[i]++;
+        this.recentNanoseconds[i][this.nextRecentIndex[i]] = nanoseconds;
+        this.nextRecentIndex[i] = (this.nextRecentIndex[i] + 1) % WINDOW_SIZE;
+        return now;
+    }
+
+    public void setObjectTypeNames(String[] names) {
+        this.objectTypeNames = names.clone();
+        this.liveObjectsByType = new int[names.length];
+    }
+
+    public void setLiveObjectCount(int type, int count) {
+        this.liveObjectsByType[type] = count;
+    }
+
+    public int getLiveObjectCount(int type) {
+        return this.liveObjectsByType[type];
+    }
+
+    public void setCollisionPairsTested(long count) {
+        this.collisionPairsTested = count;
+    }
+
+    public long getCollisionPairsTested() {
+        return this.collisionPairsTested;
+    }
+
+    public void setDrawCounts(int drawn, int culled) {
+        this.spritesDrawn = drawn;
+        this.spritesCulled = culled;
+        this.totalSpritesCulled += culled;
+    }
+
+    public int getSpritesDrawn() {
+        return this.spritesDrawn;
+    }
+
+    public int getSpritesCulled() {
+        return this.spritesCulled;
+    }
+
+    public long getTotalSpritesCulled() {
+        return this.totalSpritesCulled;
+    }
+
+    // the average time the stage took each time it ran, in microseconds
+    public double getAverageMicroseconds(Stage stage) {
+        long count = this.runCount[stage.ordinal()];
+        if (count == 0) {
+            return 0;
+        }
+        return this.totalNanoseconds[stage.ordinal()] / (double) count / 1000;
+    }
+
+    // the time (in microseconds) which the given fraction (0 to 1) of recent runs of the stage were faster
+    // than. eg. 0.5 gives the median, and 0.99 gives the time that only 1 in 100 runs were slower than
+    public synchronized double getPercentileMicroseconds(Stage stage, double percentile) {
+        int i = stage.ordinal();
+        int count = (int) Math.min(this.runCount[i], WINDOW_SIZE);
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(this.recentNanoseconds[i], 0, this.sortScratch, 0, count);
+        Arrays.sort(this.sortScratch, 0, count);
+        int index = (int) Math.min(count - 1, Math.floor(percentile * count));
+        return this.sortScratch[index] / 1000.0;
+    }
+
+    // the slowest recent run of the stage, in microseconds
+    public double getMaxMicroseconds(Stage stage) {
+        int i = stage.ordinal();
+        int count = (int) Math.min(this.runCount[i], WINDOW_SIZE);
+        long max = 0;
+        for (int j = 0; j < count; j++) {
+            max = Math.max(max, this.recentNanoseconds[i][j]);
+        }
+        return max / 1000.0;
+    }
+
+    // forget everything recorded so far
+    public synchronized void reset() {
+        for (int i = 0; i < STAGES.length; i++) {
+            this.totalNanoseconds[i] = 0;
+            this.runCount[i] = 0;
+            this.nextRecentIndex[i] = 0;
+        }
+        this.totalSpritesCulled = 0;
+    }
+
+    // one line per stage which has run, for printing out or showing on screen
+    public String[] getReportLines() {
+        int stagesRun = 0;
+        for (Stage stage : STAGES) {
+            if (this.runCount[stage.ordinal()] > 0) {
+                stagesRun++;
+            }
+        }
+        String[] lines = new String[stagesRun + 1];
+        lines[0] = String.format("%-18s %10s %10s %10s %10s", "stage (us)", "avg", "p50", "p99", "max");
+        int line = 1;
+        for (Stage stage : STAGES) {
+            if (this.runCount[stage.ordinal()] > 0 && line < lines.length) {
+                lines[line++] = String.format(
+                    "%-18s %10.2f %10.2f %10.2f %10.2f",
+                    stage.name(),
+                    this.getAverageMicroseconds(stage),
+                    this.getPercentileMicroseconds(stage, 0.5),
+                    this.getPercentileMicroseconds(stage, 0.99),
+                    this.getMaxMicroseconds(stage)
+                );
+            }
+        }
+        return lines;
+    }
+
+    // a summary of the stages which have run, for printing out
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        for (String line : this.getReportLines()) {
+            report.append(line).append(String.format("%n"));
+        }
+        return report.toString();
+    }
+
+    // make the stats available over JMX under the given name (eg. "jspace:type=TickProfiler"), so they
+    // can be watched with VisualVM, JDK Mission Control, jconsole etc. while the game is running
+    public void registerWithJmx(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+        } catch (JMException e) {
+            // the game works fine without this, so just let someone know
+            e.printStackTrace();
+        }
+    }
+
+    // the methods below are for JMX (see TickProfilerMBean). JMX can show arrays, but not our own
+    // types, so each one gives one value per stage (or object type), in the same order as getStageNames()
+    // (or getObjectTypeNames())
+
+    public String[] getStageNames() {
+        String[] names = new String[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            names[i] = STAGES[i].name();
+        }
+        return names;
+    }
+
+    public double[] getAverageMicroseconds() {
+        double[] values = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            values[i] = this.getAverageMicroseconds(STAGES[i]);
+        }
+        return values;
+    }
+
+    public double[] getP50Microseconds() {
+        double[] values = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            values[i] = this.getPercentileMicroseconds(STAGES[i], 0.5);
+        }
+        return values;
+    }
+
+    public double[] getP99Microseconds() {
+        double[] values = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            values[i] = this.getPercentileMicroseconds(STAGES[i], 0.99);
+        }
+        return values;
+    }
+
+    public double[] getMaxMicroseconds() {
+        double[] values = new double[STAGES.length];
+        for (int i = 0; i < STAGES.length; i++) {
+            values[i] = this.getMaxMicroseconds(STAGES[i]);
+        }
+        return values;
+    }
+
+    public String[] getObjectTypeNames() {
+        return this.objectTypeNames.clone();
+    }
+
+    public int[] getLiveObjectsByType() {
+        return this.liveObjectsByType.clone();
+    }
+}
@@ -0,0 +1,22 @@
+package jspace;
+
+/*
+ * The parts of TickProfiler which can be seen over JMX. JMX finds these by the name of the interface,
+ * so it has to be called TickProfilerMBean. Each getter shows up as an attribute, eg. getP99Microseconds()
+ * is the P99Microseconds attribute.
+ */
+public interface TickProfilerMBean {
+    String[] getStageNames();
+    double[] getAverageMicroseconds();
+    double[] getP50Microseconds();
+    double[] getP99Microseconds();
+    double[] getMaxMicroseconds();
+    String[] getObjectTypeNames();
+    int[] getLiveObjectsByType();
+    long getCollisionPairsTested();
+    int getSpritesDrawn();
+    int getSpritesCulled();
+    long getTotalSpritesCulled();
+    String getReport();
+    void reset();
+}
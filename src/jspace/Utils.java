@@ -1,19 +1,48 @@
 package jspace;
 
 
+import java.awt.*;
 import java.awt.image.*;
 import java.io.*;
 import javax.imageio.*;
 
 public class Utils {
+    // (GameAssets loads the sprites with SpriteLoader instead, which is quicker)
     public static BufferedImage loadImage(String path) {
+        BufferedImage image;
         try {
-            return ImageIO.read(new File(path));
+            image = ImageIO.read(new File(path));
         } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(1);
+            throw new RuntimeException("couldn't load " + path, e);
         }
-        return null;
+        if (image == null) {
+            throw new RuntimeException("couldn't load " + path + ": not an image file Java knows how to read");
+        }
+        return image;
+    }
+
+    // make a copy of an image in whatever pixel format the screen uses. images straight from ImageIO
+    // are often in a format Java2D can't draw quickly, and have to be converted every time they're drawn
+    public static BufferedImage toCompatibleImage(BufferedImage image) {
+        BufferedImage compatibleImage = createCompatibleImage(image.getWidth(), image.getHeight());
+        Graphics2D g = compatibleImage.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return compatibleImage;
+    }
+
+    // make a new, transparent image in whatever pixel format the screen uses. if there's no screen
+    // (eg. in Headless) there's no format to match, so we use plain ARGB
+    public static BufferedImage createCompatibleImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        GraphicsConfiguration config = GraphicsEnvironment
+            .getLocalGraphicsEnvironment()
+            .getDefaultScreenDevice()
+            .getDefaultConfiguration();
+        return config.createCompatibleImage(width, height, Transparency.TRANSLUCENT);
     }
 
     public static double clamp(double val, double min, double max) {
@@ -52,6 +52,57 @@ public class Vector2d {
         );
     }
 
+    // the methods below change this vector instead of making a new one. the ones above are nicer to read,
+    // but every new Vector2d is garbage that the garbage collector has to clean up later, which adds up
+    // when it happens every tick. they all return this vector, so you can chain them together like
+    // v.set(a).addInPlace(b).normalizeInPlace()
+
+    public Vector2d set(double x, double y) {
+        this.x = x;
+        this.y = y;
+        return this;
+    }
+
+    public Vector2d set(Vector2d other) {
+        return this.set(other.x, other.y);
+    }
+
+    public Vector2d addInPlace(Vector2d other) {
+        return this.addInPlace(other.x, other.y);
+    }
+
+    public Vector2d addInPlace(double x, double y) {
+        this.x += x;
+        this.y += y;
+        return this;
+    }
+
+    public Vector2d subtractInPlace(Vector2d other) {
+        return this.subtractInPlace(other.x, other.y);
+    }
+
+    public Vector2d subtractInPlace(double x, double y) {
+        this.x -= x;
+        this.y -= y;
+        return this;
+    }
+
+    public Vector2d scaleInPlace(double magnitude) {
+        this.x *= magnitude;
+        this.y *= magnitude;
+        return this;
+    }
+
+    public Vector2d normalizeInPlace() {
+        if (this.x == 0 && this.y == 0) {
+            return this;
+        }
+        double magnitude = Math.sqrt(this.x * this.x + this.y * this.y);
+        this.x /= magnitude;
+        this.y /= magnitude;
+        return this;
+    }
+
     @Override
     public String toString() {
         return "{x="+String.valueOf(this.x)+", y="+String.valueOf(this.y)+"}";